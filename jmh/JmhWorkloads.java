@@ -0,0 +1,73 @@
+// JmhWorkloads.java
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// benchmarks.Workloads for the solvers in the unnamed package (see there for why it exists)
+public class JmhWorkloads implements benchmarks.Workloads {
+
+    public String grid(Path dir, int side) throws IOException {
+        String file = dir.resolve("grid" + side + ".txt").toString();
+        GridGenerator.grid(file, side, side, false, 0.1, true, 1);
+        return file;
+    }
+
+    public String csp(Path dir, int n, boolean dense) throws IOException {
+        String file = dir.resolve((dense ? "dense" : "csp") + n + ".txt").toString();
+        if (dense) GridGenerator.csp(file, n, Math.min(n - 1, 48), 16, true, 1);
+        else GridGenerator.csp(file, n, 3.0, 4, true, 1);
+        return file;
+    }
+
+    public Object parseGraph(String file) throws IOException {
+        return AStar.parseFile(file);
+    }
+
+    public Op astar(Object graph, String mode) {
+        AStar.ParsedInput pi = (AStar.ParsedInput) graph;
+        AStar.Graph g = pi.graph;
+        AStar.Mode m = AStar.Mode.parse(mode);
+        Landmarks lm = m == AStar.Mode.ALT ? Landmarks.select(g, 8) : null;
+        AStar.Heuristic h = m.toward(g, lm, pi.D);
+        AStar.SearchContext ctx = new AStar.SearchContext(g);
+        int s = pi.S, d = pi.D;
+        return () -> AStar.astar(g, ctx, s, d, h);
+    }
+
+    public Object heuristicValidity(Object graph) {
+        return AStar.validModes(((AStar.ParsedInput) graph).graph);
+    }
+
+    public Op distanceMatrix(Object graph) {
+        AStar.Graph g = ((AStar.ParsedInput) graph).graph;
+        int[] ends = new int[32];
+        for (int i = 0; i < ends.length; i++) ends[i] = g.ids[(int) ((long) i * 7919 % g.n)];
+        int[] sources = Arrays.copyOf(ends, 16), targets = Arrays.copyOfRange(ends, 16, 32);
+        return () -> {
+            double[][] m = new double[16][];
+            DistanceMatrix.dijkstra(g, sources, targets, 1, false, DistanceMatrix.into(m));
+            return m;
+        };
+    }
+
+    public Object parseCsp(String file) throws IOException {
+        return CSP.parseFile(file);
+    }
+
+    public Object solver(Object csp) {
+        CSP.ParsedInput pi = (CSP.ParsedInput) csp;
+        return new CSP(pi.graph, pi.K);
+    }
+
+    public boolean initialAC3(Object solver) {
+        return ((CSP) solver).initialAC3();
+    }
+
+    public boolean backtrack(Object solver) {
+        return ((CSP) solver).backtrack();
+    }
+
+    public Object solve(Object solver) {
+        return ((CSP) solver).solve();
+    }
+}
@@ -0,0 +1,41 @@
+// AStarBenchmark.java
+package benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One S->D query per heuristic mode on grids of growing size. The search context is reused, as
+// BatchQueries and SolverService reuse theirs.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AStarBenchmark {
+
+    @Param({"100", "300", "1000"})
+    int side;
+
+    @Param({"ucs", "euclidean", "manhattan", "alt"})
+    String mode;
+
+    final Workloads w = Workloads.get();
+    Workloads.Op search;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path dir = Inputs.create();
+        try {
+            search = w.astar(w.parseGraph(w.grid(dir, side)), mode);
+        } finally {
+            Inputs.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public Object astar() throws Exception {
+        return search.run();
+    }
+}
@@ -0,0 +1,82 @@
+// CspBenchmark.java
+package benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// CSP parsing, propagation and search on planted colorable instances of growing size. Sparse
+// instances have degree 3 and 4 colors, dense ones degree 48 and 16 colors. The solver benchmarks
+// get a fresh solver per call (initialAC3 and backtrack change it), built outside the measurement.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CspBenchmark {
+
+    @Param({"100", "500", "2000"})
+    int n;
+
+    @Param({"sparse", "dense"})
+    String graph;
+
+    final Workloads w = Workloads.get();
+    Path dir;
+    String file;
+    Object csp;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Inputs.create();
+        file = w.csp(dir, n, graph.equals("dense"));
+        csp = w.parseCsp(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Inputs.delete(dir);
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+        Object solver;
+
+        @Setup(Level.Invocation)
+        public void setup(CspBenchmark b) {
+            solver = b.w.solver(b.csp);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Propagated {
+        Object solver;
+
+        @Setup(Level.Invocation)
+        public void setup(CspBenchmark b) {
+            solver = b.w.solver(b.csp);
+            b.w.initialAC3(solver);
+        }
+    }
+
+    @Benchmark
+    public Object parseFile() throws Exception {
+        return w.parseCsp(file);
+    }
+
+    @Benchmark
+    public boolean initialAC3(Fresh f) {
+        return w.initialAC3(f.solver);
+    }
+
+    @Benchmark
+    public boolean backtrack(Propagated p) {
+        return w.backtrack(p.solver);
+    }
+
+    @Benchmark
+    public Object solve(Fresh f) {
+        return w.solve(f.solver);
+    }
+}
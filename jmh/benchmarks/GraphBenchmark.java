@@ -0,0 +1,53 @@
+// GraphBenchmark.java
+package benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Parsing, the heuristic validity check and a 16x16 distance matrix on grids of growing size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+    @Param({"100", "300", "1000"})
+    int side;
+
+    final Workloads w = Workloads.get();
+    Path dir;
+    String file;
+    Object graph;
+    Workloads.Op matrix;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Inputs.create();
+        file = w.grid(dir, side);
+        graph = w.parseGraph(file);
+        matrix = w.distanceMatrix(graph);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Inputs.delete(dir);
+    }
+
+    @Benchmark
+    public Object parseFile() throws Exception {
+        return w.parseGraph(file);
+    }
+
+    @Benchmark
+    public Object checkHeuristicValidity() {
+        return w.heuristicValidity(graph);
+    }
+
+    @Benchmark
+    public Object distanceMatrix() throws Exception {
+        return matrix.run();
+    }
+}
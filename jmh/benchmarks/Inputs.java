@@ -0,0 +1,23 @@
+// Inputs.java
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+// temporary directory for the generated input files of one trial
+final class Inputs {
+
+    private Inputs() {}
+
+    static Path create() throws IOException {
+        return Files.createTempDirectory("jmh-inputs");
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) Files.deleteIfExists(f);
+        }
+        Files.deleteIfExists(dir);
+    }
+}
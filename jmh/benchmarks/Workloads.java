@@ -0,0 +1,56 @@
+// Workloads.java
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// The solvers live in the unnamed package, which a named package cannot import, and JMH refuses
+// benchmark classes in the unnamed package. The benchmarks therefore reach the solvers through
+// this interface. JmhWorkloads (unnamed package, next to this directory) is its only
+// implementation, so every call is monomorphic and the JIT inlines it.
+//
+// Solver state crosses as Object: a parsed graph, a parsed CSP, a CSP solver.
+public interface Workloads {
+
+    // inputs written by GridGenerator: a side x side grid with 10% obstacles and random weights,
+    // or a planted n-node CSP, sparse (degree 3, 4 colors) or dense (degree 48, 16 colors)
+    String grid(Path dir, int side) throws IOException;
+    String csp(Path dir, int n, boolean dense) throws IOException;
+
+    // AStar.parseFile
+    Object parseGraph(String file) throws IOException;
+
+    // AStar.astar from the file's S to its D in mode (ucs|euclidean|manhattan|alt), reusing one
+    // SearchContext. ALT selects its 8 landmarks here, outside the measurement.
+    Op astar(Object graph, String mode);
+
+    // AStar.validModes, the check behind checkHeuristicValidity without its report
+    Object heuristicValidity(Object graph);
+
+    // DistanceMatrix.dijkstra between 16 and 16 spread-out vertices on one thread
+    Op distanceMatrix(Object graph);
+
+    // CSP.parseFile
+    Object parseCsp(String file) throws IOException;
+
+    // new CSP(graph, K): an untouched solver
+    Object solver(Object csp);
+
+    // CSP.initialAC3, CSP.backtrack and CSP.solve on a solver from solver(); backtrack expects
+    // initialAC3 to have run
+    boolean initialAC3(Object solver);
+    boolean backtrack(Object solver);
+    Object solve(Object solver);
+
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    static Workloads get() {
+        try {
+            return (Workloads) Class.forName("JmhWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("JmhWorkloads is missing from the jmh source set", ex);
+        }
+    }
+}
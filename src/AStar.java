@@ -1,31 +1,124 @@
 // AStar.java
 import java.io.*;
 import java.util.*;
-import java.util.function.BiFunction;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AStar {
 
-    static class Edge {
-        int to;
-        double weight;
-        Edge(int to, double w) { this.to = to; this.weight = w; }
+    // Frozen compressed-sparse-row graph. Vertex ids are remapped to dense indexes 0..n-1
+    // in ascending id order; the neighbors of index v are targets[offsets[v] .. offsets[v+1]).
+    static class Graph {
+        static final int NO_CELL = Integer.MIN_VALUE; // vertex appeared only in edge lines
+
+        final int n;
+        final int[] ids;       // dense index -> vertex id (sorted ascending)
+        final int[] cells;     // dense index -> cell_id
+        final int cellWidth;   // cell_id = x * cellWidth + y
+        final double[] xs, ys; // decoded cell coordinates, NaN for NO_CELL
+        final boolean allCells;
+        final int[] offsets;   // n+1 row starts into targets/weights
+        final int[] targets;   // dense index of the neighbor
+        final double[] weights;
+
+        Graph(int[] ids, int[] cells, int cellWidth, int[] offsets, int[] targets, double[] weights) {
+            this.n = ids.length;
+            this.ids = ids;
+            this.cells = cells;
+            this.cellWidth = cellWidth;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            xs = new double[n];
+            ys = new double[n];
+            boolean all = true;
+            for (int v = 0; v < n; v++) {
+                if (cells[v] == NO_CELL) {
+                    xs[v] = ys[v] = Double.NaN;
+                    all = false;
+                } else {
+                    xs[v] = cells[v] / cellWidth;
+                    ys[v] = cells[v] % cellWidth;
+                }
+            }
+            allCells = all;
+        }
+
+        // dense index of a vertex id, -1 if the id is not in the graph
+        int index(int id) {
+            int i = Arrays.binarySearch(ids, id);
+            return i >= 0 ? i : -1;
+        }
+
+        int arcCount() { return targets.length; } // every undirected edge is stored twice
     }
 
-    static class Graph {
-        Map<Integer,Integer> cellId = new HashMap<>(); // vertexId -> cell_id
-        Map<Integer, List<Edge>> adj = new HashMap<>();
-        Set<Integer> vertices = new HashSet<>();
+    // Collects id,cell and u,v,w records in growable primitive arrays and freezes them into a Graph.
+    static class GraphBuilder {
+        int cellWidth = 10; // default cell layout: x = cell_id / 10, y = cell_id % 10
+        int[] vIds = new int[16], vCells = new int[16];
+        int vCount;
+        int[] eU = new int[16], eV = new int[16];
+        double[] eW = new double[16];
+        int eCount;
+
         void addVertex(int id, int cell) {
-            vertices.add(id);
-            cellId.put(id, cell);
-            adj.putIfAbsent(id, new ArrayList<>());
+            if (vCount == vIds.length) {
+                vIds = Arrays.copyOf(vIds, vCount * 2);
+                vCells = Arrays.copyOf(vCells, vCount * 2);
+            }
+            vIds[vCount] = id;
+            vCells[vCount] = cell;
+            vCount++;
         }
+
         void addEdge(int u, int v, double w) {
-            adj.putIfAbsent(u, new ArrayList<>());
-            adj.putIfAbsent(v, new ArrayList<>());
-            adj.get(u).add(new Edge(v,w));
-            adj.get(v).add(new Edge(u,w));
-            vertices.add(u); vertices.add(v);
+            if (eCount == eU.length) {
+                eU = Arrays.copyOf(eU, eCount * 2);
+                eV = Arrays.copyOf(eV, eCount * 2);
+                eW = Arrays.copyOf(eW, eCount * 2);
+            }
+            eU[eCount] = u; eV[eCount] = v; eW[eCount] = w;
+            eCount++;
+        }
+
+        Graph build() {
+            // every id that occurs in a vertex or edge line, sorted and deduplicated
+            int[] all = new int[vCount + 2 * eCount];
+            System.arraycopy(vIds, 0, all, 0, vCount);
+            System.arraycopy(eU, 0, all, vCount, eCount);
+            System.arraycopy(eV, 0, all, vCount + eCount, eCount);
+            Arrays.parallelSort(all);
+            int n = 0;
+            for (int i = 0; i < all.length; i++) {
+                if (n == 0 || all[i] != all[n-1]) all[n++] = all[i];
+            }
+            int[] ids = Arrays.copyOf(all, n);
+
+            int[] cells = new int[n];
+            Arrays.fill(cells, Graph.NO_CELL);
+            for (int i = 0; i < vCount; i++) cells[Arrays.binarySearch(ids, vIds[i])] = vCells[i]; // last line wins
+
+            // remap endpoints in place, then count degrees
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < eCount; i++) {
+                eU[i] = Arrays.binarySearch(ids, eU[i]);
+                eV[i] = Arrays.binarySearch(ids, eV[i]);
+                offsets[eU[i] + 1]++;
+                offsets[eV[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) offsets[v+1] += offsets[v];
+
+            // fill rows in input order so neighbor order matches the edge list
+            int[] cursor = Arrays.copyOf(offsets, n);
+            int[] targets = new int[2 * eCount];
+            double[] weights = new double[2 * eCount];
+            for (int i = 0; i < eCount; i++) {
+                int u = eU[i], v = eV[i];
+                targets[cursor[u]] = v; weights[cursor[u]++] = eW[i];
+                targets[cursor[v]] = u; weights[cursor[v]++] = eW[i];
+            }
+            return new Graph(ids, cells, cellWidth, offsets, targets, weights);
         }
     }
 
@@ -36,117 +129,555 @@ public class AStar {
         long pushes;
         int maxFrontier;
         double runtimeSec;
+        double epsilon = 1.0;            // proven bound: cost <= epsilon * optimal (anytime search)
+        List<Improvement> improvements;  // anytime search only: every published solution, in order
     }
 
-    // decode cell id to x,y: x = cell_id // 10, y = cell_id % 10
-    static int cellX(int cell) { return cell / 10; }
-    static int cellY(int cell) { return cell % 10; }
+    // One solution published by the anytime search.
+    static class Improvement {
+        final double cost, epsilon, timeSec;
+        final long expanded;
+        Improvement(double cost, double epsilon, double timeSec, long expanded) {
+            this.cost = cost;
+            this.epsilon = epsilon;
+            this.timeSec = timeSec;
+            this.expanded = expanded;
+        }
+    }
 
-    // heuristics
-    static BiFunction<Graph,Integer,Double> zeroHeuristic(int goal) {
-        return (g, v) -> 0.0;
+    // h(v) for a dense index v. Implementations capture the goal once per query, so the
+    // per-push call is a couple of array reads the JIT can inline.
+    @FunctionalInterface
+    interface Heuristic {
+        double estimate(int v);
     }
-    static BiFunction<Graph,Integer,Double> euclideanHeuristic(int goal) {
-        return (graph, v) -> {
-            int cellV = graph.cellId.get(v);
-            int cellG = graph.cellId.get(goal);
-            double dx = cellX(cellV) - cellX(cellG);
-            double dy = cellY(cellV) - cellY(cellG);
-            return Math.hypot(dx, dy);
-        };
+
+    // heuristics; goal is a vertex id
+    static Heuristic zeroHeuristic() {
+        return v -> 0.0;
     }
-    static BiFunction<Graph,Integer,Double> manhattanHeuristic(int goal) {
-        return (graph, v) -> {
-            int cellV = graph.cellId.get(v);
-            int cellG = graph.cellId.get(goal);
-            double dx = Math.abs(cellX(cellV) - cellX(cellG));
-            double dy = Math.abs(cellY(cellV) - cellY(cellG));
-            return dx + dy;
+    static Heuristic euclideanHeuristic(Graph graph, int goal) {
+        int t = graph.index(goal);
+        if (t < 0) return zeroHeuristic(); // astar reports NO PATH anyway
+        requireCells(graph);
+        final double[] xs = graph.xs, ys = graph.ys;
+        final double gx = xs[t], gy = ys[t];
+        return v -> {
+            double dx = xs[v] - gx;
+            double dy = ys[v] - gy;
+            return Math.sqrt(dx * dx + dy * dy);
         };
     }
+    static Heuristic manhattanHeuristic(Graph graph, int goal) {
+        int t = graph.index(goal);
+        if (t < 0) return zeroHeuristic();
+        requireCells(graph);
+        final double[] xs = graph.xs, ys = graph.ys;
+        final double gx = xs[t], gy = ys[t];
+        return v -> Math.abs(xs[v] - gx) + Math.abs(ys[v] - gy);
+    }
+
+    // search modes run by main; ALT needs a landmark table
+    enum Mode {
+        UCS("UCS", "UCS"),
+        EUCLIDEAN("A* Euclidean", "Euclid"),
+        MANHATTAN("A* Manhattan", "Manhattan"),
+        ALT("A* ALT", "ALT");
 
-    static class PQEntry {
-        double f;
-        double g;
-        int node;
-        PQEntry(double f, double g, int node) { this.f = f; this.g = g; this.node = node; }
+        final String label, shortName;
+        Mode(String label, String shortName) { this.label = label; this.shortName = shortName; }
+
+        Heuristic toward(Graph graph, Landmarks landmarks, int goal) {
+            switch (this) {
+                case EUCLIDEAN: return euclideanHeuristic(graph, goal);
+                case MANHATTAN: return manhattanHeuristic(graph, goal);
+                case ALT: return landmarks.toward(graph, goal);
+                default: return zeroHeuristic();
+            }
+        }
+
+        // "ucs", "euclidean"/"euclid", "manhattan", "alt", case-insensitive
+        static Mode parse(String name) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(name) || m.shortName.equalsIgnoreCase(name)) return m;
+            }
+            throw new IllegalArgumentException("unknown mode '" + name + "', expected one of " + Arrays.toString(values()));
+        }
     }
 
-    // Run A* given graph, start, goal, heuristic (function that returns h for a node)
-    static AResult astar(Graph graph, int start, int goal, BiFunction<Graph,Integer,Double> hfunc) {
-        long pushes = 0;
-        long expanded = 0;
-        int maxFrontier = 0;
-        final double INF = Double.POSITIVE_INFINITY;
+    static void requireCells(Graph graph) {
+        if (!graph.allCells) throw new IllegalStateException("geometric heuristics need an id,cell line for every vertex");
+    }
 
-        Map<Integer, Double> gCost = new HashMap<>();
-        Map<Integer, Integer> parent = new HashMap<>();
+    // Binary min-heap over dense node indexes with decrease-key. pos[v] is the heap slot of v
+    // (-1 when absent), so each node is in the heap at most once. Equal keys pop the smaller
+    // index first, which keeps the search order deterministic.
+    static class IndexedHeap {
+        private final int[] heap;
+        private final int[] pos;
+        private final double[] key;
+        private int size;
 
-        for (int v : graph.vertices) gCost.put(v, INF);
+        IndexedHeap(int capacity) {
+            heap = new int[capacity];
+            pos = new int[capacity];
+            key = new double[capacity];
+            Arrays.fill(pos, -1);
+        }
 
-        Comparator<PQEntry> cmp = (a,b) -> {
-            if (a.f < b.f) return -1;
-            if (a.f > b.f) return 1;
-            return Integer.compare(a.node, b.node); // deterministic tie-breaker
-        };
-        PriorityQueue<PQEntry> open = new PriorityQueue<>(cmp);
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+        boolean contains(int v) { return pos[v] >= 0; }
+        double key(int v) { return key[v]; }
+        int peek() { return heap[0]; }
+        int get(int i) { return heap[i]; } // i-th queued node in heap order, 0 <= i < size
+        double peekKey() { return key[heap[0]]; }
 
-        gCost.put(start, 0.0);
-        double startF = 0.0 + hfunc.apply(graph, start);
-        open.add(new PQEntry(startF, 0.0, start));
-        pushes++;
+        // insert v, or move it to its new key in either direction if it is already queued
+        void update(int v, double k) {
+            int i = pos[v];
+            if (i < 0) {
+                i = size++;
+                heap[i] = v;
+                pos[v] = i;
+                key[v] = k;
+                siftUp(i);
+            } else {
+                double old = key[v];
+                key[v] = k;
+                if (k < old) siftUp(i); else siftDown(i);
+            }
+        }
 
-        double startTime = System.nanoTime();
+        int pop() {
+            int top = heap[0];
+            removeAt(0);
+            return top;
+        }
 
-        while (!open.isEmpty()) {
-            maxFrontier = Math.max(maxFrontier, open.size());
-            PQEntry cur = open.poll();
-            int u = cur.node;
-            double g_u = cur.g;
+        void remove(int v) {
+            if (pos[v] >= 0) removeAt(pos[v]);
+        }
+
+        // O(size): only the slots actually used are reset
+        void clear() {
+            for (int i = 0; i < size; i++) pos[heap[i]] = -1;
+            size = 0;
+        }
+
+        private void removeAt(int i) {
+            int v = heap[i];
+            pos[v] = -1;
+            int last = heap[--size];
+            if (i == size) return;
+            heap[i] = last;
+            pos[last] = i;
+            siftDown(i);
+            siftUp(pos[last]);
+        }
+
+        private boolean less(int a, int b) {
+            double ka = key[a], kb = key[b];
+            return ka < kb || (ka == kb && a < b);
+        }
 
-            // Only expand if this popped g matches best-known g
-            if (Math.abs(g_u - gCost.getOrDefault(u, INF)) > 1e-9) {
-                continue;
+        private void siftUp(int i) {
+            int v = heap[i];
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                int pv = heap[p];
+                if (!less(v, pv)) break;
+                heap[i] = pv;
+                pos[pv] = i;
+                i = p;
             }
+            heap[i] = v;
+            pos[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int c = 2 * i + 1;
+                int cv = heap[c];
+                int r = c + 1;
+                if (r < size && less(heap[r], cv)) { c = r; cv = heap[r]; }
+                if (!less(cv, v)) break;
+                heap[i] = cv;
+                pos[cv] = i;
+                i = c;
+            }
+            heap[i] = v;
+            pos[v] = i;
+        }
+    }
+
+    // Reusable per-thread search state for one graph size. g/parent of v are only meaningful
+    // while stamp[v] == generation, so starting a new query is O(1) instead of O(V).
+    // stop, like CSP.stop, lets another thread end a query: astar and bidirectional poll it every
+    // STOP_POLL expansions and throw CancellationException once it is set.
+    static class SearchContext {
+        static final int STOP_POLL = 1024; // power of two
+
+        final double[] g;
+        final int[] parent;
+        final int[] stamp;
+        int generation;
+        final IndexedHeap open;
+        AtomicBoolean stop;
+
+        SearchContext(int n) {
+            g = new double[n];
+            parent = new int[n];
+            stamp = new int[n];
+            open = new IndexedHeap(n);
+        }
+
+        SearchContext(Graph graph) { this(graph.n); }
+
+        int capacity() { return g.length; }
+
+        void reset() {
+            open.clear();
+            if (++generation == Integer.MAX_VALUE) { // wrap-around: one real clear every 2^31 queries
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+        }
+
+        boolean reached(int v) { return stamp[v] == generation; }
+        double g(int v) { return stamp[v] == generation ? g[v] : Double.POSITIVE_INFINITY; }
+
+        void set(int v, double gv, int p) {
+            g[v] = gv;
+            parent[v] = p;
+            stamp[v] = generation;
+        }
+
+        void pollStop(long expanded) {
+            if ((expanded & (STOP_POLL - 1)) == 0 && stop != null && stop.get()) {
+                throw new CancellationException("search stopped after " + expanded + " expansions");
+            }
+        }
+    }
+
+    // Run A* given graph, start, goal (vertex ids), heuristic over dense indexes
+    static AResult astar(Graph graph, int start, int goal, Heuristic h) {
+        return astar(graph, new SearchContext(graph), start, goal, h);
+    }
+
+    // Same search reusing ctx, which must have been created for a graph of at least this size.
+    // Every improvement of g(v) is one push (an insert or a decrease-key), and every pop is an expansion.
+    static AResult astar(Graph graph, SearchContext ctx, int start, int goal, Heuristic h) {
+        if (ctx.capacity() < graph.n) {
+            throw new IllegalArgumentException("search context sized for " + ctx.capacity() + " vertices, graph has " + graph.n);
+        }
+        long pushes = 0;
+        long expanded = 0;
+        int maxFrontier = 0;
+
+        Metrics.SearchEvent ev = Metrics.searchStarted("astar");
+        int s = graph.index(start), t = graph.index(goal);
+        double startTime = System.nanoTime();
+        if (s < 0 || t < 0) return Metrics.searched(ev, start, goal, noPath(0, 0, 0, startTime));
+        if (Metrics.ENABLED) h = Metrics.timed(h);
+
+        ctx.reset();
+        IndexedHeap open = ctx.open;
+        ctx.set(s, 0.0, -1);
+        open.update(s, 0.0 + h.estimate(s));
+        pushes++;
 
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final double[] weights = graph.weights;
+        long t0 = 0;
+        while (!open.isEmpty()) {
+            maxFrontier = Math.max(maxFrontier, open.size());
+            if (Metrics.ENABLED) t0 = System.nanoTime();
+            int u = open.pop();
+            if (Metrics.ENABLED) Metrics.ASTAR_HEAP.record(System.nanoTime() - t0);
+            double g_u = ctx.g[u];
             expanded++;
+            ctx.pollStop(expanded);
 
-            if (u == goal) {
+            if (u == t) {
+                if (Metrics.ENABLED) t0 = System.nanoTime();
+                LinkedList<Integer> path = reconstructPath(graph, ctx.parent, t);
+                if (Metrics.ENABLED) Metrics.ASTAR_PATH.record(System.nanoTime() - t0);
                 double endTime = System.nanoTime();
                 AResult res = new AResult();
-                res.cost = gCost.get(goal);
-                // reconstruct path
-                LinkedList<Integer> path = new LinkedList<>();
-                int x = goal;
-                while (parent.containsKey(x)) {
-                    path.addFirst(x);
-                    x = parent.get(x);
-                }
-                path.addFirst(start);
+                res.cost = g_u;
                 res.path = path;
                 res.expanded = expanded;
                 res.pushes = pushes;
                 res.maxFrontier = maxFrontier;
                 res.runtimeSec = (endTime - startTime) / 1e9;
-                return res;
+                return Metrics.searched(ev, start, goal, res);
             }
 
-            // expand neighbors
-            List<Edge> neighbors = graph.adj.getOrDefault(u, Collections.emptyList());
-            for (Edge e : neighbors) {
-                int v = e.to;
-                double w = e.weight;
-                double tentative = g_u + w;
-                if (tentative + 1e-12 < gCost.getOrDefault(v, INF)) {
-                    gCost.put(v, tentative);
-                    parent.put(v, u);
-                    double f = tentative + hfunc.apply(graph, v);
-                    open.add(new PQEntry(f, tentative, v));
+            // expand neighbors; a closed node that improves is simply queued again
+            for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                int v = targets[i];
+                double tentative = g_u + weights[i];
+                if (tentative + 1e-12 < ctx.g(v)) {
+                    ctx.set(v, tentative, u);
+                    double f = tentative + h.estimate(v);
+                    if (Metrics.ENABLED) {
+                        (open.contains(v) ? Metrics.ASTAR_DECREASE_KEYS : Metrics.ASTAR_INSERTS).inc();
+                        t0 = System.nanoTime();
+                    }
+                    open.update(v, f);
+                    if (Metrics.ENABLED) Metrics.ASTAR_HEAP.record(System.nanoTime() - t0);
+                    pushes++;
+                }
+            }
+        }
+
+        return Metrics.searched(ev, start, goal, noPath(expanded, pushes, maxFrontier, startTime));
+    }
+
+    static AResult bidirectional(Graph graph, int start, int goal, Heuristic toGoal, Heuristic toStart) {
+        return bidirectional(graph, new SearchContext(graph), new SearchContext(graph), start, goal, toGoal, toStart);
+    }
+
+    // Bidirectional search with average potentials: pf(v) = (toGoal(v) - toStart(v)) / 2 keys the
+    // forward side, -pf(v) the backward side. Each step expands the side with the smaller open list.
+    // The search stops once topF + topB >= mu, the best meeting cost seen. That rule is exact
+    // for the zero heuristic and for consistent ones (w >= h(u) - h(v) on every edge, which
+    // validModes verifies for Euclidean and Manhattan; ALT always qualifies). main skips
+    // bidirectional runs of modes that fail the check; BatchQueries and SolverService refuse them.
+    // Counters are summed over both sides and maxFrontier is the peak of both open lists combined.
+    // fwd.stop ends the search early (see SearchContext).
+    static AResult bidirectional(Graph graph, SearchContext fwd, SearchContext bwd, int start, int goal,
+                                 Heuristic toGoal, Heuristic toStart) {
+        if (fwd.capacity() < graph.n || bwd.capacity() < graph.n) {
+            throw new IllegalArgumentException("search contexts are smaller than the graph (" + graph.n + " vertices)");
+        }
+        long pushes = 0;
+        long expanded = 0;
+        int maxFrontier = 0;
+
+        Metrics.SearchEvent ev = Metrics.searchStarted("bidirectional");
+        int s = graph.index(start), t = graph.index(goal);
+        double startTime = System.nanoTime();
+        if (s < 0 || t < 0) return Metrics.searched(ev, start, goal, noPath(0, 0, 0, startTime));
+
+        fwd.reset();
+        bwd.reset();
+        IndexedHeap openF = fwd.open, openB = bwd.open;
+        fwd.set(s, 0.0, -1);
+        openF.update(s, potential(toGoal, toStart, s));
+        bwd.set(t, 0.0, -1);
+        openB.update(t, -potential(toGoal, toStart, t));
+        pushes += 2;
+
+        double mu = s == t ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = s == t ? s : -1;
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final double[] weights = graph.weights;
+        while (!openF.isEmpty() && !openB.isEmpty()) {
+            maxFrontier = Math.max(maxFrontier, openF.size() + openB.size());
+            if (openF.peekKey() + openB.peekKey() >= mu) break;
+
+            boolean forward = openF.size() <= openB.size();
+            SearchContext side = forward ? fwd : bwd, other = forward ? bwd : fwd;
+            double sign = forward ? 1.0 : -1.0;
+            int u = side.open.pop();
+            double g_u = side.g[u];
+            expanded++;
+            fwd.pollStop(expanded);
+
+            for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                int v = targets[i];
+                double tentative = g_u + weights[i];
+                if (tentative + 1e-12 < side.g(v)) {
+                    side.set(v, tentative, u);
+                    side.open.update(v, tentative + sign * potential(toGoal, toStart, v));
                     pushes++;
+                    if (other.reached(v) && tentative + other.g[v] < mu) {
+                        mu = tentative + other.g[v];
+                        meet = v;
+                    }
                 }
             }
         }
 
+        if (meet < 0) return Metrics.searched(ev, start, goal, noPath(expanded, pushes, maxFrontier, startTime));
+        double endTime = System.nanoTime();
+        AResult res = new AResult();
+        res.cost = mu;
+        LinkedList<Integer> path = reconstructPath(graph, fwd.parent, meet);
+        for (int x = bwd.parent[meet]; x != -1; x = bwd.parent[x]) path.addLast(graph.ids[x]);
+        res.path = path;
+        res.expanded = expanded;
+        res.pushes = pushes;
+        res.maxFrontier = maxFrontier;
+        res.runtimeSec = (endTime - startTime) / 1e9;
+        return Metrics.searched(ev, start, goal, res);
+    }
+
+    private static double potential(Heuristic toGoal, Heuristic toStart, int v) {
+        return 0.5 * (toGoal.estimate(v) - toStart.estimate(v));
+    }
+
+    static final double ANYTIME_EPSILON = 3.0, ANYTIME_STEP = 0.5;
+
+    // Anytime Repairing A* (ARA*). Searches with f = g + eps*h, starting at eps0 and lowering eps
+    // by step after every completed pass. A pass only re-expands the vertices whose g improved
+    // since they were last expanded (the INCONS list), so later passes reuse the earlier work.
+    // Each pass publishes its solution with the bound min(eps, g(goal) / min(g + h) over
+    // OPEN and INCONS). The search stops when a pass proves the bound 1, or when the wall-clock
+    // budget or the expansion budget (0 = unlimited) runs out. The result is the last completed
+    // pass. h must be consistent for the bounds to hold; main skips modes that fail validModes.
+    static AResult anytime(Graph graph, SearchContext ctx, int start, int goal, Heuristic h,
+                           double eps0, double step, long budgetNanos, long maxExpansions) {
+        if (ctx.capacity() < graph.n) {
+            throw new IllegalArgumentException("search context sized for " + ctx.capacity() + " vertices, graph has " + graph.n);
+        }
+        if (!(eps0 >= 1.0) || !(step > 0.0)) throw new IllegalArgumentException("need eps0 >= 1 and step > 0");
+        long pushes = 0;
+        long expanded = 0;
+        int maxFrontier = 0;
+
+        Metrics.SearchEvent ev = Metrics.searchStarted("anytime");
+        int s = graph.index(start), t = graph.index(goal);
+        double startTime = System.nanoTime();
+        long deadline = (long) startTime + budgetNanos;
+        List<Improvement> timeline = new ArrayList<>();
+        if (s < 0 || t < 0) {
+            AResult none = noPath(0, 0, 0, startTime);
+            none.epsilon = Double.POSITIVE_INFINITY;
+            none.improvements = timeline;
+            return Metrics.searched(ev, start, goal, none);
+        }
+
+        int[] closed = new int[graph.n]; // closed[v] == pass: expanded during this pass
+        int[] incons = new int[graph.n]; // improved while closed; queued again next pass
+        boolean[] inIncons = new boolean[graph.n];
+        int inconsCount = 0;
+
+        ctx.reset();
+        IndexedHeap open = ctx.open;
+        ctx.set(s, 0.0, -1);
+        double eps = eps0;
+        open.update(s, eps * h.estimate(s));
+        pushes++;
+
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final double[] weights = graph.weights;
+        AResult best = null;
+        boolean outOfBudget = false;
+        for (int pass = 1; ; pass++) {
+            // ImprovePath: expand until f(goal) <= min f over OPEN
+            while (!open.isEmpty() && ctx.g(t) > open.peekKey()) {
+                if (System.nanoTime() >= deadline || (maxExpansions > 0 && expanded >= maxExpansions)) {
+                    outOfBudget = true;
+                    break;
+                }
+                maxFrontier = Math.max(maxFrontier, open.size());
+                int u = open.pop();
+                closed[u] = pass;
+                double g_u = ctx.g[u];
+                expanded++;
+                for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                    int v = targets[i];
+                    double tentative = g_u + weights[i];
+                    if (tentative + 1e-12 < ctx.g(v)) {
+                        ctx.set(v, tentative, u);
+                        if (closed[v] != pass) {
+                            open.update(v, tentative + eps * h.estimate(v));
+                            pushes++;
+                        } else if (!inIncons[v]) {
+                            inIncons[v] = true;
+                            incons[inconsCount++] = v;
+                        }
+                    }
+                }
+            }
+            if (outOfBudget) break;
+            if (!ctx.reached(t)) break; // exhausted OPEN: no path at all
+
+            // publish with the proven bound
+            double lower = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < open.size(); i++) {
+                int v = open.get(i);
+                lower = Math.min(lower, ctx.g[v] + h.estimate(v));
+            }
+            for (int i = 0; i < inconsCount; i++) lower = Math.min(lower, ctx.g[incons[i]] + h.estimate(incons[i]));
+            double bound = Math.max(1.0, Math.min(eps, ctx.g[t] / lower));
+            if (ctx.g[t] == 0.0) bound = 1.0;
+            best = new AResult();
+            best.cost = ctx.g[t];
+            best.path = reconstructPath(graph, ctx.parent, t);
+            best.epsilon = bound;
+            Improvement last = timeline.isEmpty() ? null : timeline.get(timeline.size() - 1);
+            if (last == null || best.cost < last.cost || bound < last.epsilon) {
+                timeline.add(new Improvement(best.cost, bound, (System.nanoTime() - startTime) / 1e9, expanded));
+            }
+            if (bound <= 1.0 + 1e-9 || eps <= 1.0) break;
+
+            // next pass: smaller eps, INCONS back into OPEN, every key recomputed, CLOSED emptied
+            eps = Math.max(1.0, eps - step);
+            int queued = open.size();
+            int[] requeue = Arrays.copyOf(incons, queued + inconsCount);
+            for (int i = 0; i < queued; i++) requeue[inconsCount + i] = open.get(i);
+            open.clear();
+            for (int v : requeue) {
+                inIncons[v] = false;
+                open.update(v, ctx.g[v] + eps * h.estimate(v));
+            }
+            inconsCount = 0;
+        }
+
+        if (best == null) {
+            AResult none = noPath(expanded, pushes, maxFrontier, startTime);
+            none.epsilon = Double.POSITIVE_INFINITY;
+            none.improvements = timeline;
+            return Metrics.searched(ev, start, goal, none);
+        }
+        best.expanded = expanded;
+        best.pushes = pushes;
+        best.maxFrontier = maxFrontier;
+        best.runtimeSec = (System.nanoTime() - startTime) / 1e9;
+        best.improvements = timeline;
+        return Metrics.searched(ev, start, goal, best);
+    }
+
+    // Dijkstra from dense index src until the heap runs dry. Afterwards ctx.g(v) is the exact
+    // distance from src (INF when unreachable). Returns the number of settled vertices.
+    static int settleAll(Graph graph, SearchContext ctx, int src) {
+        ctx.reset();
+        IndexedHeap open = ctx.open;
+        ctx.set(src, 0.0, -1);
+        open.update(src, 0.0);
+        int settled = 0;
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final double[] weights = graph.weights;
+        while (!open.isEmpty()) {
+            int u = open.pop();
+            double g_u = ctx.g[u];
+            settled++;
+            for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                int v = targets[i];
+                double tentative = g_u + weights[i];
+                if (tentative < ctx.g(v)) {
+                    ctx.set(v, tentative, u);
+                    open.update(v, tentative);
+                }
+            }
+        }
+        return settled;
+    }
+
+    // follow parent links back from dense index t and translate to vertex ids
+    static LinkedList<Integer> reconstructPath(Graph graph, int[] parent, int t) {
+        LinkedList<Integer> path = new LinkedList<>();
+        for (int x = t; x != -1; x = parent[x]) path.addFirst(graph.ids[x]);
+        return path;
+    }
+
+    static AResult noPath(long expanded, long pushes, int maxFrontier, double startTime) {
         double endTime = System.nanoTime();
         AResult res = new AResult();
         res.cost = null; // NO PATH
@@ -160,59 +691,83 @@ public class AStar {
 
     // parse input file
     static class ParsedInput {
-        Graph graph = new Graph();
+        Graph graph;
         Integer S = null;
         Integer D = null;
     }
 
     static ParsedInput parseFile(String filename) throws IOException {
+        Metrics.ParseEvent ev = new Metrics.ParseEvent();
+        ev.begin();
+        long t0 = System.nanoTime();
+        ParsedInput out = readInput(filename);
+        if (Metrics.ENABLED) Metrics.PARSE.record(System.nanoTime() - t0);
+        ev.file = filename;
+        ev.commit();
+        return out;
+    }
+
+    private static ParsedInput readInput(String filename) throws IOException {
+        if (Snapshot.isSnapshot(filename)) return Snapshot.readGraph(filename);
+        InputParser.Records rec = InputParser.parse(filename);
         ParsedInput out = new ParsedInput();
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        String line;
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-            String[] parts = line.split(",");
-            for (int i=0;i<parts.length;i++) parts[i]=parts[i].trim();
-            if (parts.length == 2 && parts[0].equalsIgnoreCase("S")) {
-                out.S = Integer.parseInt(parts[1]);
-            } else if (parts.length == 2 && parts[0].equalsIgnoreCase("D")) {
-                out.D = Integer.parseInt(parts[1]);
-            } else if (parts.length == 2) {
-                int id = Integer.parseInt(parts[0]);
-                int cell = Integer.parseInt(parts[1]);
-                out.graph.addVertex(id, cell);
-            } else if (parts.length == 3) {
-                int a = Integer.parseInt(parts[0]);
-                int b = Integer.parseInt(parts[1]);
-                double w = Double.parseDouble(parts[2]);
-                out.graph.addEdge(a,b,w);
-            } else {
-                // ignore
-            }
+        GraphBuilder builder = new GraphBuilder();
+        if (rec.cellWidth != null) { // optional: x = cell_id / W, y = cell_id % W (default 10)
+            if (rec.cellWidth < 1) throw new IOException("cellwidth must be positive: " + rec.cellWidth);
+            builder.cellWidth = rec.cellWidth;
         }
-        br.close();
+        // id,cell lines are vertices and u,v,w lines edges; the builder takes the arrays as they are
+        builder.vIds = rec.pairA;
+        builder.vCells = rec.pairB;
+        builder.vCount = rec.pairs;
+        builder.eU = rec.triU;
+        builder.eV = rec.triV;
+        builder.eW = rec.triW;
+        builder.eCount = rec.triples;
+        out.S = rec.S;
+        out.D = rec.D;
+        out.graph = builder.build();
         return out;
     }
 
-    // check admissibility conditions for heuristics on edges
-    static void checkHeuristicValidity(Graph g) {
+    // check admissibility conditions for heuristics on edges; written so that a NaN coordinate
+    // or weight fails the check instead of slipping through every comparison. w >= |h(u) - h(v)|
+    // on every edge also makes the heuristic consistent, which bidirectional search relies on.
+    // Returns the modes that pass (UCS and ALT always do; Euclidean and Manhattan need a cell on
+    // every vertex).
+    static EnumSet<Mode> validModes(Graph g) {
+        EnumSet<Mode> valid = EnumSet.of(Mode.UCS, Mode.ALT);
+        if (!g.allCells) return valid;
         boolean euclidOk = true, manhOk = true;
-        for (int u : g.vertices) {
-            for (Edge e : g.adj.getOrDefault(u, Collections.emptyList())) {
-                int v = e.to;
+        for (int u = 0; u < g.n; u++) {
+            for (int i = g.offsets[u], end = g.offsets[u+1]; i < end; i++) {
+                int v = g.targets[i];
                 if (u >= v) continue; // only check once per undirected
-                int cellU = g.cellId.get(u);
-                int cellV = g.cellId.get(v);
-                double l2 = Math.hypot(cellX(cellU) - cellX(cellV), cellY(cellU) - cellY(cellV));
-                double l1 = Math.abs(cellX(cellU) - cellX(cellV)) + Math.abs(cellY(cellU) - cellY(cellV));
-                if (e.weight + 1e-12 < l2) euclidOk = false;
-                if (e.weight + 1e-12 < l1) manhOk = false;
+                double dx = Math.abs(g.xs[u] - g.xs[v]);
+                double dy = Math.abs(g.ys[u] - g.ys[v]);
+                double l2 = Math.hypot(dx, dy);
+                double l1 = dx + dy;
+                if (!(g.weights[i] + 1e-12 >= l2)) euclidOk = false;
+                if (!(g.weights[i] + 1e-12 >= l1)) manhOk = false;
             }
         }
+        if (euclidOk) valid.add(Mode.EUCLIDEAN);
+        if (manhOk) valid.add(Mode.MANHATTAN);
+        return valid;
+    }
+
+    // validModes with a report of the result
+    static EnumSet<Mode> checkHeuristicValidity(Graph g) {
+        EnumSet<Mode> valid = validModes(g);
         System.out.println("Heuristic validity checks for this graph:");
-        System.out.println("Euclidean admissible (w >= Euclidean for every edge)? " + (euclidOk ? "YES" : "NO"));
-        System.out.println("Manhattan admissible (w >= Manhattan for every edge)? " + (manhOk ? "YES" : "NO"));
+        if (!g.allCells) {
+            System.out.println("Euclidean admissible (w >= Euclidean for every edge)? N/A (some vertices have no cell)");
+            System.out.println("Manhattan admissible (w >= Manhattan for every edge)? N/A (some vertices have no cell)");
+            return valid;
+        }
+        System.out.println("Euclidean admissible (w >= Euclidean for every edge)? " + (valid.contains(Mode.EUCLIDEAN) ? "YES" : "NO"));
+        System.out.println("Manhattan admissible (w >= Manhattan for every edge)? " + (valid.contains(Mode.MANHATTAN) ? "YES" : "NO"));
+        return valid;
     }
 
     static void printModeResult(String mode, AResult r, int start, int goal) {
@@ -237,12 +792,44 @@ public class AStar {
         System.out.printf("Runtime (s): %.6f%n", r.runtimeSec);
     }
 
+    static void printImprovements(AResult r) {
+        System.out.printf("Suboptimality bound: %.4f%n", r.epsilon);
+        for (Improvement imp : r.improvements) {
+            System.out.printf("  t=%.6f s, expanded %d: cost %.6f, bound %.4f%n", imp.timeSec, imp.expanded, imp.cost, imp.epsilon);
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Usage: java AStar <inputfile>");
+            System.out.println("Usage: java AStar <inputfile> [--modes ucs,euclidean,manhattan,alt] [--landmarks K]");
+            System.out.println("       [--alt-save FILE | --alt-load FILE] [--bidirectional]");
+            System.out.println("       [--anytime [--epsilon E] [--epsilon-step S] [--budget-ms T] [--budget-expansions N]]");
             System.exit(1);
         }
         String filename = args[0];
+        int landmarkCount = 8;
+        String altSave = null, altLoad = null;
+        boolean bidir = false, anytime = false;
+        double eps0 = ANYTIME_EPSILON, step = ANYTIME_STEP;
+        Mode[] modes = Mode.values();
+        long budgetMs = Long.MAX_VALUE / 2_000_000, budgetExpansions = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--modes") && i + 1 < args.length) {
+                String[] names = args[++i].split(",");
+                modes = new Mode[names.length];
+                for (int m = 0; m < names.length; m++) modes[m] = Mode.parse(names[m].trim());
+            }
+            else if (args[i].equals("--landmarks") && i + 1 < args.length) landmarkCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--alt-save") && i + 1 < args.length) altSave = args[++i];
+            else if (args[i].equals("--alt-load") && i + 1 < args.length) altLoad = args[++i];
+            else if (args[i].equals("--bidirectional")) bidir = true;
+            else if (args[i].equals("--anytime")) anytime = true;
+            else if (args[i].equals("--epsilon") && i + 1 < args.length) eps0 = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--epsilon-step") && i + 1 < args.length) step = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--budget-ms") && i + 1 < args.length) budgetMs = Long.parseLong(args[++i]);
+            else if (args[i].equals("--budget-expansions") && i + 1 < args.length) budgetExpansions = Long.parseLong(args[++i]);
+            else System.out.println("Ignoring unknown argument: " + args[i]);
+        }
         try {
             ParsedInput pi = parseFile(filename);
             if (pi.S == null || pi.D == null) {
@@ -250,31 +837,73 @@ public class AStar {
                 return;
             }
             Graph g = pi.graph;
-            System.out.printf("Parsed graph: %d vertices, adjacency lists for %d vertices.%n", g.vertices.size(), g.adj.size());
-            checkHeuristicValidity(g);
-
-            // UCS
-            AResult rU = astar(g, pi.S, pi.D, zeroHeuristic(pi.D));
-            printModeResult("UCS", rU, pi.S, pi.D);
+            System.out.printf("Parsed graph: %d vertices, adjacency lists for %d vertices.%n", g.n, g.n);
+            EnumSet<Mode> valid = checkHeuristicValidity(g);
 
-            // A* Euclidean
-            AResult rE = astar(g, pi.S, pi.D, euclideanHeuristic(pi.D));
-            printModeResult("A* Euclidean", rE, pi.S, pi.D);
+            // the landmark table costs k+1 full Dijkstras, so only build it for an ALT run or a save
+            Landmarks lm = null;
+            if (altSave != null || Arrays.asList(modes).contains(Mode.ALT)) {
+                long t0 = System.nanoTime();
+                lm = altLoad != null ? Landmarks.load(g, altLoad) : Landmarks.select(g, landmarkCount);
+                System.out.printf("Landmarks: %d %s in %.6f s%n", lm.k, altLoad != null ? "loaded" : "selected", (System.nanoTime() - t0) / 1e9);
+                if (altSave != null) lm.save(g, altSave);
+            }
 
-            // A* Manhattan
-            AResult rM = astar(g, pi.S, pi.D, manhattanHeuristic(pi.D));
-            printModeResult("A* Manhattan", rM, pi.S, pi.D);
+            AResult[] results = new AResult[modes.length];
+            AResult[] bidirResults = new AResult[modes.length];
+            SearchContext ctx = new SearchContext(g), back = bidir ? new SearchContext(g) : null;
+            for (int i = 0; i < modes.length; i++) {
+                results[i] = astar(g, ctx, pi.S, pi.D, modes[i].toward(g, lm, pi.D));
+                printModeResult(modes[i].label, results[i], pi.S, pi.D);
+                if (bidir && !valid.contains(modes[i])) {
+                    // the bidirectional stop rule needs a consistent heuristic to be exact
+                    System.out.println();
+                    System.out.println("MODE: " + modes[i].label + " (bidirectional) skipped: the heuristic fails the validity check");
+                } else if (bidir) {
+                    bidirResults[i] = bidirectional(g, ctx, back, pi.S, pi.D, modes[i].toward(g, lm, pi.D), modes[i].toward(g, lm, pi.S));
+                    printModeResult(modes[i].label + " (bidirectional)", bidirResults[i], pi.S, pi.D);
+                }
+                if (anytime && modes[i] != Mode.UCS && !valid.contains(modes[i])) {
+                    // the eps bounds assume an admissible h; without one they would not hold
+                    System.out.println();
+                    System.out.println("MODE: " + modes[i].label + " (anytime) skipped: the heuristic fails the validity check");
+                } else if (anytime && modes[i] != Mode.UCS) { // eps has nothing to inflate without h
+                    AResult r = anytime(g, ctx, pi.S, pi.D, modes[i].toward(g, lm, pi.D), eps0, step,
+                            budgetMs * 1_000_000, budgetExpansions);
+                    printModeResult(modes[i].label + " (anytime, eps0 " + eps0 + ")", r, pi.S, pi.D);
+                    printImprovements(r);
+                }
+            }
+            // uniform grids get a Jump Point Search run as well
+            JumpPointSearch jps = JumpPointSearch.detect(g);
+            AResult jpsResult = null;
+            if (jps != null) {
+                jpsResult = jps.search(ctx, pi.S, pi.D);
+                printModeResult("Jump Point Search (" + jps.describe() + ")", jpsResult, pi.S, pi.D);
+            }
 
             // Comparison quick summary
             System.out.println();
             System.out.println("Comparison:");
             System.out.println("Costs: ");
-            System.out.printf(" UCS: %s, Euclid: %s, Manhattan: %s%n",
-                    (rU.cost==null?"NO PATH":String.format("%.6f", rU.cost)),
-                    (rE.cost==null?"NO PATH":String.format("%.6f", rE.cost)),
-                    (rM.cost==null?"NO PATH":String.format("%.6f", rM.cost))
-            );
-            System.out.println("Expanded (UCS, Euclid, Manhattan): " + rU.expanded + ", " + rE.expanded + ", " + rM.expanded);
+            StringBuilder costs = new StringBuilder(), names = new StringBuilder(), expanded = new StringBuilder(), bidirExpanded = new StringBuilder();
+            for (int i = 0; i < modes.length; i++) {
+                String sep = i > 0 ? ", " : "";
+                AResult r = results[i];
+                costs.append(sep).append(modes[i].shortName).append(": ").append(r.cost==null?"NO PATH":String.format("%.6f", r.cost));
+                names.append(sep).append(modes[i].shortName);
+                expanded.append(sep).append(r.expanded);
+                if (bidir) bidirExpanded.append(sep).append(bidirResults[i] == null ? "skipped" : String.valueOf(bidirResults[i].expanded));
+            }
+            if (jpsResult != null) {
+                costs.append(", JPS: ").append(jpsResult.cost==null?"NO PATH":String.format("%.6f", jpsResult.cost));
+                names.append(", JPS");
+                expanded.append(", ").append(jpsResult.expanded);
+            }
+            System.out.println(" " + costs);
+            System.out.println("Expanded (" + names + "): " + expanded);
+            if (bidir) System.out.println("Expanded bidirectional (" + names + "): " + bidirExpanded);
+            Metrics.dumpIfEnabled();
 
         } catch (IOException ex) {
             System.err.println("Error reading file: " + ex.getMessage());
@@ -0,0 +1,160 @@
+// BatchQueries.java
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Answers many S,D queries against one loaded graph. Queries are read from a file or stdin and run
+// in parallel, and one CSV line per query is printed in input order. The graph is shared read-only.
+// Search state is pooled: there are exactly `threads` Workers, each owning its SearchContexts,
+// and a task borrows one for the length of its query. That bounds memory to threads * O(V)
+// whether the tasks run on a fixed pool or on virtual threads.
+public class BatchQueries {
+
+    static final int IN_FLIGHT_PER_THREAD = 256; // how far reading may run ahead of ordered output
+
+    static final class Worker {
+        final AStar.SearchContext fwd, bwd;
+        Worker(AStar.Graph g, boolean bidirectional) {
+            fwd = new AStar.SearchContext(g);
+            bwd = bidirectional ? new AStar.SearchContext(g) : null;
+        }
+    }
+
+    static final class Answer {
+        final String line;
+        final long nanos;
+        Answer(String line, long nanos) { this.line = line; this.nanos = nanos; }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java BatchQueries <graphfile> <queryfile|-> [--mode ucs|euclidean|manhattan|alt]");
+        System.out.println("       [--bidirectional] [--threads N] [--virtual] [--landmarks K | --alt-load FILE]");
+        System.out.println("Query lines are \"S,D\" vertex ids; '#' starts a comment.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) { usage(); System.exit(1); }
+        AStar.Mode mode = AStar.Mode.UCS;
+        boolean bidir = false, virtual = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int landmarkCount = 8;
+        String altLoad = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--mode") && i + 1 < args.length) mode = AStar.Mode.parse(args[++i]);
+            else if (args[i].equals("--bidirectional")) bidir = true;
+            else if (args[i].equals("--threads") && i + 1 < args.length) threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--virtual")) virtual = true;
+            else if (args[i].equals("--landmarks") && i + 1 < args.length) landmarkCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--alt-load") && i + 1 < args.length) altLoad = args[++i];
+            else System.err.println("Ignoring unknown argument: " + args[i]);
+        }
+
+        AStar.Graph g = AStar.parseFile(args[0]).graph;
+        if (bidir && !AStar.validModes(g).contains(mode)) {
+            // the bidirectional stop rule needs a consistent heuristic to be exact
+            System.err.println("Cannot run --bidirectional with " + mode.label + ": the heuristic fails the validity check on this graph.");
+            System.err.println("Pick a mode that passes it (ucs and alt always do), or drop --bidirectional");
+            System.exit(1);
+        }
+        Landmarks lm = null;
+        if (mode == AStar.Mode.ALT) lm = altLoad != null ? Landmarks.load(g, altLoad) : Landmarks.select(g, landmarkCount);
+
+        BlockingQueue<Worker> workers = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) workers.add(new Worker(g, bidir));
+        ExecutorService exec = virtual ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(threads);
+
+        BufferedReader in = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(args[1]));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        out.println("query,S,D,cost,expanded,pushes,maxFrontier,runtimeSec,path");
+
+        ArrayDeque<Future<Answer>> pending = new ArrayDeque<>();
+        long[] latencies = new long[1024];
+        int answered = 0, lineNo = 0, queries = 0;
+        long t0 = System.nanoTime();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(",");
+                if (parts.length != 2) {
+                    System.err.println("Skipping line " + lineNo + ": expected S,D but got \"" + line + "\"");
+                    continue;
+                }
+                int s, d;
+                try {
+                    s = Integer.parseInt(parts[0].trim());
+                    d = Integer.parseInt(parts[1].trim());
+                } catch (NumberFormatException ex) {
+                    System.err.println("Skipping line " + lineNo + ": " + ex.getMessage());
+                    continue;
+                }
+                pending.add(exec.submit(task(g, lm, mode, bidir, workers, queries++, s, d)));
+                if (pending.size() >= threads * IN_FLIGHT_PER_THREAD) {
+                    latencies = write(out, pending.poll().get(), latencies, answered++);
+                }
+            }
+            while (!pending.isEmpty()) latencies = write(out, pending.poll().get(), latencies, answered++);
+        } finally {
+            in.close();
+            exec.shutdown();
+        }
+        double wallSec = (System.nanoTime() - t0) / 1e9;
+
+        long[] sorted = Arrays.copyOf(latencies, answered);
+        Arrays.sort(sorted);
+        out.printf("# queries: %d, threads: %d%s, mode: %s%s%n", answered, threads, virtual ? " (virtual)" : "",
+                mode.label, bidir ? " (bidirectional)" : "");
+        out.printf(Locale.ROOT, "# wall time (s): %.6f, throughput (queries/s): %.1f%n", wallSec, answered / Math.max(wallSec, 1e-9));
+        out.printf(Locale.ROOT, "# latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.90) / 1e6,
+                percentile(sorted, 0.99) / 1e6, percentile(sorted, 1.0) / 1e6);
+        out.flush();
+    }
+
+    static Callable<Answer> task(AStar.Graph g, Landmarks lm, AStar.Mode mode, boolean bidir,
+                                 BlockingQueue<Worker> workers, int index, int s, int d) {
+        return () -> {
+            Worker w = workers.take();
+            long t = System.nanoTime();
+            AStar.AResult r;
+            try {
+                r = bidir ? AStar.bidirectional(g, w.fwd, w.bwd, s, d, mode.toward(g, lm, d), mode.toward(g, lm, s))
+                          : AStar.astar(g, w.fwd, s, d, mode.toward(g, lm, d));
+            } finally {
+                workers.add(w);
+            }
+            long nanos = System.nanoTime() - t;
+            StringBuilder sb = new StringBuilder(64);
+            sb.append(index).append(',').append(s).append(',').append(d).append(',');
+            sb.append(r.cost == null ? "NO PATH" : String.format(Locale.ROOT, "%.6f", r.cost));
+            sb.append(',').append(r.expanded).append(',').append(r.pushes).append(',').append(r.maxFrontier);
+            sb.append(',').append(String.format(Locale.ROOT, "%.6f", nanos / 1e9)).append(',');
+            if (r.path != null) {
+                int i = 0;
+                for (int v : r.path) {
+                    if (i++ > 0) sb.append("->");
+                    sb.append(v);
+                }
+            }
+            return new Answer(sb.toString(), nanos);
+        };
+    }
+
+    static long[] write(PrintWriter out, Answer a, long[] latencies, int index) {
+        out.println(a.line);
+        if (index == latencies.length) latencies = Arrays.copyOf(latencies, index * 2);
+        latencies[index] = a.nanos;
+        return latencies;
+    }
+
+    // nearest-rank percentile of sorted values
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(rank, 1)) - 1];
+    }
+}
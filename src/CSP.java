@@ -1,9 +1,11 @@
 // CSP.java
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class CSP {
 
+    // Parsed instance: an undirected graph whose vertices are the variables.
     static class Graph {
         Map<Integer, Set<Integer>> neighbors = new HashMap<>();
         Set<Integer> vars = new HashSet<>();
@@ -16,236 +18,839 @@ public class CSP {
         }
     }
 
-    static class Arc { int xi, xj; Arc(int xi, int xj) { this.xi = xi; this.xj = xj; } }
+    // Solver state is all primitive. Variable ids are remapped to dense indexes 0..n-1 in
+    // ascending id order (so "smallest index" breaks ties exactly like "smallest id"). The
+    // neighbors of v are adj[adjOff[v] .. adjOff[v+1]). Value c (1..K) is bit c-1 of v's domain
+    // words dom[v*words .. v*words+words), and size[v] is its popcount. The trail is an int stack
+    // of (var, value) pairs pruned since the search started, undone by restoring the bits.
+    final Graph graph;
+    final int K;
+    final int n, words;
+    final int[] ids;
+    final int[] adjOff, adj;
+    final boolean selfLoop;
+    final long[] dom;
+    final int[] size;
+    final int[] value;         // assigned value, 0 while unassigned
+    int assigned;
+    int[] trail = new int[64];
+    int trailTop;              // ints used in trail, two per pruned pair
+    // Propagation queue. For != the arc (xi, xj) can only prune when dom(xj) is a singleton, and
+    // then all of xj's arcs prune the same value, so the queue holds variables that became
+    // singletons rather than arcs. It is a ring of n slots: inQueue keeps each var in it at most
+    // once, so it never overflows. qHead and qTail only grow; slots are taken mod the size.
+    final int[] queue;
+    final long[] inQueue;
+    int qHead, qTail;
 
-    Graph graph;
-    int K;
-    Map<Integer, Set<Integer>> domains;
-    Deque<Pair> trail = new ArrayDeque<>(); // pruned (var, value) pairs for undo
-    Map<Integer, Integer> assignment = new HashMap<>();
+    // Explanations for conflict-directed backjumping. Trail entry e (the pair at trail[2e]) was
+    // pruned because of why[e]:
+    //   0 .. n-1   revise against that variable's singleton domain
+    //   n .. 2n-1  the decision on variable why[e] - n
+    //   2n + r     a learned nogood; reasons[r] is a count followed by the other variables in it
+    // trailPos[v*K + c-1] is the entry that pruned (v, c), -1 while c is in v's domain or when
+    // it was pruned before this instance was copied (a fixed fact for the copy).
+    int[] why = new int[32];
+    final int[] trailPos;
+    final int[] levelOf;       // decision level of an assigned var, -1 otherwise
+    final int[] decVar;        // variable decided at each level
+    int[] reasons = new int[16];
+    int reasonTop;
+    int wipedOut = -1;         // variable whose domain the last failed propagation emptied
+    final BitSet conflict = new BitSet(); // levels the last failure depends on
+    BitSet[] levelConf = new BitSet[16];
+    int[] seen = new int[32];  // explain() visit stamps per trail entry
+    int stamp;
+    int[] work = new int[32];
 
-    static class Pair { int var; int val; Pair(int v,int val){this.var=v; this.val=val;} }
+    // MRV index. Every unassigned var v sits in bucket size[v] as bit pos[v] of a bitmap, where
+    // pos is the var's tie-break rank (its index, or tieRank[v]) and atPos maps back. Bucket s
+    // is words bucket[s*bWords ..], with one summary bit per nonzero word in bucketSum[s*sWords ..],
+    // so the first var of the smallest nonempty bucket is found without touching the others.
+    // prune, undo, assign and unassign keep it current at O(1) each.
+    final int bWords, sWords;
+    final long[] bucket, bucketSum;
+    final int[] bucketCount;
+    int[] pos, atPos;
+
+    // Preprocessing (see preprocess). A peeled var is left out of the search and propagation;
+    // peelOrder lists them in the order they were removed, and they are colored greedily in
+    // reverse once the rest has a coloring. toAssign is the number of vars the search assigns.
+    boolean[] peeled;
+    int[] peelOrder = new int[0];
+    int toAssign;
+
+    // Search strategy. The defaults are MRV with smallest-id ties, LCV value order and
+    // conflict-directed backjumping; the ParallelCSP portfolio varies them. stop is shared by a
+    // group of parallel searches and is set once one of them has the answer, so the others unwind.
+    int[] tieRank;             // MRV tie-break rank per var, null = by id
+    boolean lcv = true;        // false = plain ascending values
+    SplittableRandom valueRnd; // non-null = shuffle values of equal LCV score
+    boolean cbj = true;        // false = chronological backtracking
+    boolean reduce = true;     // false = no peeling or clique fixing before the search
+    int[] weight;              // dom/wdeg failure weight per arc (adj index), null = plain MRV
+    long[] wdeg;               // per var, summed weight of the arcs to unassigned neighbors
+    Nogoods nogoods;           // learned nogoods, null = no learning
+    AtomicBoolean stop;
 
     CSP(Graph g, int K) {
         this.graph = g;
         this.K = K;
-        domains = new HashMap<>();
-        for (int v : graph.vars) {
-            Set<Integer> dom = new LinkedHashSet<>();
-            for (int i=1;i<=K;i++) dom.add(i);
-            domains.put(v, dom);
-        }
-    }
-
-    // AC-3 support
-    boolean revise(int xi, int xj) {
-        boolean revised = false;
-        Set<Integer> dx = domains.get(xi);
-        Set<Integer> dy = domains.get(xj);
-        if (dx == null || dy == null) return false;
-        List<Integer> toRemove = new ArrayList<>();
-        for (int a : dx) {
-            boolean supported = false;
-            for (int b : dy) {
-                if (a != b) { supported = true; break; }
-            }
-            if (!supported) toRemove.add(a);
-        }
-        for (int val : toRemove) {
-            dx.remove(val);
-            trail.push(new Pair(xi, val));
-            revised = true;
-        }
-        return revised;
-    }
-
-    boolean ac3(Queue<Arc> queue) {
-        while (!queue.isEmpty()) {
-            Arc arc = queue.poll();
-            if (revise(arc.xi, arc.xj)) {
-                if (domains.get(arc.xi).isEmpty()) return false;
-                for (int xk : graph.neighbors.getOrDefault(arc.xi, Collections.emptySet())) {
-                    if (xk == arc.xj) continue;
-                    queue.add(new Arc(xk, arc.xi));
+        ids = g.vars.stream().mapToInt(Integer::intValue).sorted().toArray();
+        n = ids.length;
+        words = Math.max(1, (K + 63) >>> 6);
+        adjOff = new int[n + 1];
+        boolean loop = false;
+        for (int v = 0; v < n; v++) adjOff[v + 1] = adjOff[v] + g.neighbors.get(ids[v]).size();
+        adj = new int[adjOff[n]];
+        for (int v = 0; v < n; v++) {
+            int k = adjOff[v];
+            for (int w : g.neighbors.get(ids[v])) {
+                adj[k++] = Arrays.binarySearch(ids, w);
+                if (w == ids[v]) loop = true;
+            }
+            Arrays.sort(adj, adjOff[v], k);
+        }
+        selfLoop = loop;
+        dom = new long[n * words];
+        size = new int[n];
+        value = new int[n];
+        for (int v = 0; v < n; v++) {
+            for (int c = 0; c < K; c++) dom[v * words + (c >>> 6)] |= 1L << c;
+            size[v] = K;
+        }
+        trailPos = new int[n * K];
+        Arrays.fill(trailPos, -1);
+        levelOf = new int[n];
+        Arrays.fill(levelOf, -1);
+        decVar = new int[n];
+        queue = new int[Integer.highestOneBit(Math.max(1, n - 1)) << 1];
+        inQueue = new long[(n + 63) >>> 6];
+        bWords = (n + 63) >>> 6;
+        sWords = (bWords + 63) >>> 6;
+        bucket = new long[(K + 1) * bWords];
+        bucketSum = new long[(K + 1) * sWords];
+        bucketCount = new int[K + 1];
+        toAssign = n;
+        rebuildBuckets();
+    }
+
+    // Independent copy of o's current search state (domains, assignment, strategy). The graph
+    // arrays are immutable and shared; trail and queue start empty, so the copy cannot undo
+    // below the point it was taken, and o's decisions are fixed facts for it. Weights are copied
+    // and the copy learns into its own (empty) nogood store.
+    CSP(CSP o) {
+        graph = o.graph;
+        K = o.K;
+        n = o.n;
+        words = o.words;
+        ids = o.ids;
+        adjOff = o.adjOff;
+        adj = o.adj;
+        selfLoop = o.selfLoop;
+        dom = o.dom.clone();
+        size = o.size.clone();
+        value = o.value.clone();
+        assigned = o.assigned;
+        trailPos = new int[n * K];
+        Arrays.fill(trailPos, -1);
+        levelOf = new int[n];
+        Arrays.fill(levelOf, -1);
+        decVar = new int[n];
+        queue = new int[Integer.highestOneBit(Math.max(1, n - 1)) << 1];
+        inQueue = new long[(n + 63) >>> 6];
+        tieRank = o.tieRank;
+        peeled = o.peeled;
+        peelOrder = o.peelOrder;
+        toAssign = o.toAssign;
+        bWords = o.bWords;
+        sWords = o.sWords;
+        bucket = new long[(K + 1) * bWords];
+        bucketSum = new long[(K + 1) * sWords];
+        bucketCount = new int[K + 1];
+        rebuildBuckets();
+        lcv = o.lcv;
+        valueRnd = o.valueRnd == null ? null : o.valueRnd.split();
+        cbj = o.cbj;
+        reduce = o.reduce;
+        weight = o.weight == null ? null : o.weight.clone();
+        wdeg = o.wdeg == null ? null : o.wdeg.clone();
+        nogoods = o.nogoods == null ? null : new Nogoods(o.nogoods.capacity, o.nogoods.maxLen, n * K);
+        stop = o.stop;
+    }
+
+    boolean has(int v, int c) { return (dom[v * words + ((c - 1) >>> 6)] & (1L << (c - 1))) != 0; }
+
+    // the only value of a singleton domain
+    int single(int v) {
+        for (int w = 0, base = v * words; w < words; w++) {
+            if (dom[base + w] != 0) return (w << 6) + Long.numberOfTrailingZeros(dom[base + w]) + 1;
+        }
+        return 0;
+    }
+
+    // ---- MRV buckets ----
+
+    // Refill the buckets from the current domains, ranking ties by tieRank (a permutation of
+    // 0..n-1) or by index.
+    void rebuildBuckets() {
+        Arrays.fill(bucket, 0);
+        Arrays.fill(bucketSum, 0);
+        Arrays.fill(bucketCount, 0);
+        if (pos == null) { pos = new int[n]; atPos = new int[n]; }
+        for (int v = 0; v < n; v++) {
+            pos[v] = tieRank == null ? v : tieRank[v];
+            atPos[pos[v]] = v;
+        }
+        for (int v = 0; v < n; v++) if (value[v] == 0 && (peeled == null || !peeled[v])) bucketAdd(v, size[v]);
+    }
+
+    void useTieRank(int[] rank) {
+        tieRank = rank;
+        rebuildBuckets();
+    }
+
+    void bucketAdd(int v, int s) {
+        int p = pos[v], w = s * bWords + (p >>> 6);
+        if (bucket[w] == 0) bucketSum[s * sWords + (p >>> 12)] |= 1L << ((p >>> 6) & 63);
+        bucket[w] |= 1L << p;
+        bucketCount[s]++;
+    }
+
+    void bucketRemove(int v, int s) {
+        int p = pos[v], w = s * bWords + (p >>> 6);
+        bucket[w] &= ~(1L << p);
+        if (bucket[w] == 0) bucketSum[s * sWords + (p >>> 12)] &= ~(1L << ((p >>> 6) & 63));
+        bucketCount[s]--;
+    }
+
+    // lowest-ranked var in nonempty bucket s
+    int bucketFirst(int s) {
+        for (int i = s * sWords; ; i++) {
+            if (bucketSum[i] == 0) continue;
+            int w = ((i - s * sWords) << 6) + Long.numberOfTrailingZeros(bucketSum[i]);
+            return atPos[(w << 6) + Long.numberOfTrailingZeros(bucket[s * bWords + w])];
+        }
+    }
+
+    void prune(int v, int c, int reason) {
+        dom[v * words + ((c - 1) >>> 6)] &= ~(1L << (c - 1));
+        if (value[v] == 0) { bucketRemove(v, size[v]); bucketAdd(v, size[v] - 1); }
+        size[v]--;
+        if (trailTop + 2 > trail.length) {
+            trail = Arrays.copyOf(trail, trail.length * 2);
+            why = Arrays.copyOf(why, trail.length / 2);
+        }
+        trailPos[v * K + c - 1] = trailTop >>> 1;
+        why[trailTop >>> 1] = reason;
+        trail[trailTop++] = v;
+        trail[trailTop++] = c;
+    }
+
+    void undoToSize(int target) {
+        while (trailTop > target) {
+            int c = trail[--trailTop], v = trail[--trailTop];
+            dom[v * words + ((c - 1) >>> 6)] |= 1L << (c - 1);
+            if (value[v] == 0) { bucketRemove(v, size[v]); bucketAdd(v, size[v] + 1); }
+            size[v]++;
+            trailPos[v * K + c - 1] = -1;
+            int r = why[trailTop >>> 1];
+            if (r >= 2 * n) reasonTop = r - 2 * n; // entries pop in reverse, so the last one wins
+        }
+    }
+
+    // AC-3 support. For xi != xj a value a of xi lacks support only when dom(xj) = {a}, and b is
+    // that value, so the check is a single bit test.
+    boolean revise(int xi, int xj, int b) {
+        if (Metrics.ENABLED) Metrics.CSP_REVISIONS.inc();
+        if (!has(xi, b)) return false;
+        prune(xi, b, xj);
+        return true;
+    }
+
+    // queue v if its domain is a singleton and it is not queued already
+    void enqueue(int v) {
+        if (size[v] != 1 || (inQueue[v >>> 6] & (1L << v)) != 0 || (peeled != null && peeled[v])) return;
+        inQueue[v >>> 6] |= 1L << v;
+        queue[qTail++ & (queue.length - 1)] = v;
+        if (Metrics.ENABLED) Metrics.CSP_ENQUEUED.inc();
+    }
+
+    void clearQueue() {
+        while (qHead != qTail) {
+            int v = queue[qHead++ & (queue.length - 1)];
+            inQueue[v >>> 6] &= ~(1L << v);
+        }
+    }
+
+    // Revise every arc (xi, xj) into a queued singleton xj. An xi left with one value is queued
+    // in turn; one left with none is a wipeout.
+    boolean ac3() {
+        while (qHead != qTail) {
+            int xj = queue[qHead++ & (queue.length - 1)];
+            inQueue[xj >>> 6] &= ~(1L << xj);
+            int b = single(xj);
+            for (int k = adjOff[xj]; k < adjOff[xj + 1]; k++) {
+                int xi = adj[k];
+                if (peeled != null && peeled[xi]) continue;
+                if (!revise(xi, xj, b)) continue;
+                if (size[xi] == 0) {
+                    if (Metrics.ENABLED) Metrics.wipeout(assigned);
+                    if (weight != null) bumpWeight(xi, xj);
+                    wipedOut = xi;
+                    clearQueue();
+                    return false;
                 }
+                enqueue(xi);
             }
         }
         return true;
     }
 
-    // Initialize AC3 on whole graph
+    // adj index of the arc u -> v
+    int arc(int u, int v) { return Arrays.binarySearch(adj, adjOff[u], adjOff[u + 1], v); }
+
+    // Initialize AC3 on whole graph: only vars that start as singletons can prune anything
     boolean initialAC3() {
-        Queue<Arc> q = new ArrayDeque<>();
-        for (int xi : graph.vars) {
-            for (int xj : graph.neighbors.getOrDefault(xi, Collections.emptySet())) {
-                q.add(new Arc(xi, xj));
+        for (int v = 0; v < n; v++) enqueue(v);
+        return ac3();
+    }
+
+    // ---- preprocessing ----
+
+    static final int CLIQUE_STARTS = 32; // greedy clique tries, from the highest-degree vars
+
+    // Runs once, before the search, on full domains. Peel vars with fewer than K neighbors left:
+    // whatever the rest gets, such a var still has a free color, so it is colored last. A clique
+    // found in what remains needs |clique| colors, so more than K means there is no coloring.
+    // Otherwise colors are interchangeable, so the clique is fixed to 1, 2, ... without losing a
+    // solution, which removes the K! relabelings of every coloring. Then initial AC3. Returns
+    // false when the instance has no coloring.
+    boolean preprocess() {
+        if (selfLoop) return false;
+        if (reduce) {
+            int[] deg = peel();
+            int[] clique = findClique(deg);
+            if (clique.length > K) return false;
+            for (int i = 0; i < clique.length; i++) {
+                for (int c = 1; c <= K; c++) if (c != i + 1 && has(clique[i], c)) prune(clique[i], c, clique[i]);
+            }
+            // these prunings are fixed facts, not something a backjump can blame on a decision
+            for (int e = 0; e < trailTop; e += 2) trailPos[trail[e] * K + trail[e + 1] - 1] = -1;
+            trailTop = 0;
+            if (Metrics.ENABLED) {
+                Metrics.CSP_PEELED.add(peelOrder.length);
+                Metrics.CSP_CLIQUE_FIXED.add(clique.length);
+            }
+        }
+        return initialAC3();
+    }
+
+    // Marks peeled vars and returns each remaining var's degree among the remaining vars.
+    int[] peel() {
+        int[] deg = new int[n];
+        int[] stack = new int[n];
+        int top = 0, m = 0;
+        peeled = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            deg[v] = adjOff[v + 1] - adjOff[v];
+            if (deg[v] < K) { peeled[v] = true; stack[top++] = v; }
+        }
+        int[] order = new int[top];
+        while (top > 0) {
+            int v = stack[--top];
+            if (m == order.length) order = Arrays.copyOf(order, Math.min(n, m * 2 + 1));
+            order[m++] = v;
+            bucketRemove(v, size[v]);
+            for (int k = adjOff[v]; k < adjOff[v + 1]; k++) {
+                int u = adj[k];
+                if (!peeled[u] && --deg[u] < K) { peeled[u] = true; stack[top++] = u; }
+            }
+        }
+        peelOrder = Arrays.copyOf(order, m);
+        toAssign = n - m;
+        return deg;
+    }
+
+    // Greedy clique over the unpeeled vars: from each of the highest-degree starts, add
+    // neighbors in descending degree order whenever they are adjacent to the whole clique.
+    int[] findClique(int[] deg) {
+        int core = 0;
+        long[] byDeg = new long[toAssign];
+        for (int v = 0; v < n; v++) if (!peeled[v]) byDeg[core++] = ((long) (n - deg[v]) << 32) | v;
+        Arrays.sort(byDeg);
+        int[] best = new int[0];
+        int[] cur = new int[K + 1];
+        for (int i = 0; i < Math.min(core, CLIQUE_STARTS); i++) {
+            int s = (int) byDeg[i];
+            if (deg[s] + 1 <= best.length) break; // starts only get smaller from here
+            long[] cand = new long[deg[s]];
+            int m = 0;
+            for (int k = adjOff[s]; k < adjOff[s + 1]; k++) {
+                if (!peeled[adj[k]]) cand[m++] = ((long) (n - deg[adj[k]]) << 32) | adj[k];
             }
+            Arrays.sort(cand, 0, m);
+            int size = 0;
+            cur[size++] = s;
+            for (int j = 0; j < m && size <= K; j++) {
+                int u = (int) cand[j];
+                boolean all = true;
+                for (int q = 1; q < size && all; q++) all = arc(u, cur[q]) >= 0;
+                if (all) cur[size++] = u;
+            }
+            if (size > best.length) best = Arrays.copyOf(cur, size);
+            if (best.length > K) break; // already proves there is no coloring
         }
-        return ac3(q);
+        return best;
     }
 
-    // MRV: pick unassigned var with smallest domain size
+    // MRV: pick unassigned var with smallest domain size, ties to the smallest id (or tieRank)
     int selectMRV() {
+        if (weight != null) return selectDomWdeg();
+        for (int s = 0; s <= K; s++) if (bucketCount[s] > 0) return bucketFirst(s);
+        return -1;
+    }
+
+    // dom/wdeg: smallest domain size over the summed weights of constraints to unassigned
+    // neighbors. A constraint's weight counts the wipeouts it caused, so the search moves to
+    // the part of the graph that keeps failing.
+    int selectDomWdeg() {
         int bestVar = -1;
-        int bestSize = Integer.MAX_VALUE;
-        for (int v : graph.vars) {
-            if (assignment.containsKey(v)) continue;
-            int sz = domains.get(v).size();
-            if (sz < bestSize) {
-                bestSize = sz;
+        long bestSize = 1, bestW = 0; // compare size/w as size * bestW < bestSize * w
+        for (int v = 0; v < n; v++) {
+            if (value[v] != 0 || (peeled != null && peeled[v])) continue;
+            long w = wdeg[v];
+            if (w == 0) w = 1; // no open constraints left: rank by size alone, after the rest
+            long d = bestVar < 0 ? -1 : size[v] * bestW - bestSize * w;
+            if (d < 0 || (d == 0 && tieRank != null && tieRank[v] < tieRank[bestVar])) {
                 bestVar = v;
-            } else if (sz == bestSize && bestVar != -1) {
-                // tie-breaker by var id to be deterministic
-                if (v < bestVar) bestVar = v;
+                bestSize = size[v];
+                bestW = w;
             }
         }
         return bestVar;
     }
 
-    // LCV: order values by fewest eliminations (ascending)
-    List<Integer> orderLCV(int var) {
-        List<Integer> vals = new ArrayList<>(domains.get(var));
-        Map<Integer, Integer> eliminated = new HashMap<>();
-        for (int val : vals) {
-            int elim = 0;
-            for (int nb : graph.neighbors.getOrDefault(var, Collections.emptySet())) {
-                if (assignment.containsKey(nb)) continue;
-                if (domains.get(nb).contains(val)) elim++;
+    // LCV: values of var ordered by how many unassigned neighbors still hold them, then by value
+    int[] orderLCV(int var) {
+        int[] vals = new int[size[var]];
+        int[] elim = new int[vals.length];
+        int m = 0;
+        for (int c = 1; c <= K; c++) {
+            if (!has(var, c)) continue;
+            if (!lcv) { vals[m++] = c; continue; }
+            int e = 0;
+            for (int k = adjOff[var]; k < adjOff[var + 1]; k++) {
+                int nb = adj[k];
+                if (value[nb] == 0 && has(nb, c)) e++;
+            }
+            // insertion sort on (elim, value); values arrive ascending, so ties stay in order
+            int i = m++;
+            while (i > 0 && elim[i - 1] > e) { vals[i] = vals[i - 1]; elim[i] = elim[i - 1]; i--; }
+            vals[i] = c;
+            elim[i] = e;
+        }
+        if (valueRnd != null) {
+            // shuffle each run of equal scores (all of vals when !lcv, as elim is all zero)
+            for (int lo = 0, hi; lo < m; lo = hi) {
+                hi = lo + 1;
+                while (hi < m && elim[hi] == elim[lo]) hi++;
+                for (int i = hi - 1; i > lo; i--) {
+                    int j = lo + valueRnd.nextInt(i - lo + 1), t = vals[i];
+                    vals[i] = vals[j];
+                    vals[j] = t;
+                }
             }
-            eliminated.put(val, elim);
         }
-        vals.sort((a,b) -> {
-            int c = Integer.compare(eliminated.get(a), eliminated.get(b));
-            if (c != 0) return c;
-            return Integer.compare(a,b);
-        });
         return vals;
     }
 
-    void assign(int var, int value, Map<Integer,Integer> assignedBefore, int trailSizeBefore) {
-        assignment.put(var, value);
+    void assign(int var, int c) {
+        bucketRemove(var, size[var]);
+        if (wdeg != null) for (int k = adjOff[var]; k < adjOff[var + 1]; k++) wdeg[adj[k]] -= weight[k];
+        value[var] = c;
+        levelOf[var] = assigned;
+        decVar[assigned] = var;
+        assigned++;
         // prune other values from var's domain
-        Set<Integer> dom = domains.get(var);
-        List<Integer> toRemove = new ArrayList<>();
-        for (int v : dom) if (v != value) toRemove.add(v);
-        for (int v : toRemove) {
-            dom.remove(v);
-            trail.push(new Pair(var, v));
-        }
+        for (int d = 1; d <= K; d++) if (d != c && has(var, d)) prune(var, d, n + var);
     }
 
-    void undoToSize(int targetTrailSize) {
-        while (trail.size() > targetTrailSize) {
-            Pair p = trail.pop();
-            domains.get(p.var).add(p.val);
-        }
+    void unassign(int var) {
+        value[var] = 0;
+        levelOf[var] = -1;
+        assigned--;
+        bucketAdd(var, size[var]);
+        if (wdeg != null) for (int k = adjOff[var]; k < adjOff[var + 1]; k++) wdeg[adj[k]] += weight[k];
     }
 
-    boolean consistentAssign(int var, int value) {
-        for (int nb : graph.neighbors.getOrDefault(var, Collections.emptySet())) {
-            if (assignment.containsKey(nb) && assignment.get(nb) == value) return false;
+    boolean consistentAssign(int var, int c) {
+        for (int k = adjOff[var]; k < adjOff[var + 1]; k++) {
+            if (value[adj[k]] == c) return false;
         }
         return true;
     }
 
     boolean backtrack() {
-        if (assignment.size() == graph.vars.size()) return true;
+        return cbj ? backjump() : chronological();
+    }
+
+    boolean chronological() {
+        if (Metrics.ENABLED) Metrics.CSP_NODES.inc();
+        if (assigned == toAssign) return true;
+        if (stop != null && stop.get()) return false; // another search finished first
         int var = selectMRV();
         if (var == -1) return false; // no variable available
-        List<Integer> ordered = orderLCV(var);
-        int trailSizeBefore = trail.size();
+        int[] ordered = orderLCV(var);
+        int trailSizeBefore = trailTop;
         for (int val : ordered) {
             if (!consistentAssign(var, val)) continue;
-            // save domain states by pruning and running AC3
-            Map<Integer,Integer> assignedBefore = new HashMap<>(assignment);
-            assign(var, val, assignedBefore, trailSizeBefore);
+            assign(var, val);
 
-            // prepare AC3 queue: arcs (neighbor, var)
-            Queue<Arc> q = new ArrayDeque<>();
-            for (int nb : graph.neighbors.getOrDefault(var, Collections.emptySet())) {
-                q.add(new Arc(nb, var));
-            }
-            boolean ok = ac3(q);
-            if (ok) {
-                if (backtrack()) return true;
-            }
+            enqueue(var); // propagate from var: arcs (neighbor, var)
+            if (ac3() && chronological()) return true;
             // undo
-            assignment.remove(var);
+            if (Metrics.ENABLED) Metrics.CSP_BACKTRACKS.inc();
+            unassign(var);
             undoToSize(trailSizeBefore);
+            if (stop != null && stop.get()) return false;
         }
         return false;
     }
 
-    // Solve returns assignment map or null if failure
-    Map<Integer,Integer> solve() {
-        // check self-loops
-        for (int v : graph.vars) {
-            if (graph.neighbors.getOrDefault(v, Collections.emptySet()).contains(v)) {
-                return null;
+    // Conflict-directed backjumping (MAC-CBJ). On failure, `conflict` holds the decision levels
+    // the failure depends on. A level that is not in its child's conflict set cannot fix that
+    // failure, so its remaining values are skipped and the conflict goes straight up. Otherwise
+    // the level collects the conflicts of all its values (plus the reasons its domain was already
+    // short) and, once they are exhausted, passes them up and may learn them as a nogood. Only
+    // provably dead subtrees are cut, so with learning off the first solution is the same one
+    // chronological() finds.
+    boolean backjump() {
+        if (Metrics.ENABLED) Metrics.CSP_NODES.inc();
+        if (assigned == toAssign) return true;
+        if (stop != null && stop.get()) { conflict.clear(); return false; } // unwinds every level
+        int var = selectMRV();
+        int level = assigned;
+        if (level >= levelConf.length) levelConf = Arrays.copyOf(levelConf, Math.max(level + 1, levelConf.length * 2));
+        BitSet mine = levelConf[level];
+        if (mine == null) mine = levelConf[level] = new BitSet();
+        mine.clear();
+        int[] ordered = orderLCV(var);
+        int trailSizeBefore = trailTop, reasonsBefore = reasonTop;
+        for (int val : ordered) {
+            if (!consistentAssign(var, val)) { // a neighbor holds val (cannot happen after AC)
+                for (int k = adjOff[var]; k < adjOff[var + 1]; k++) {
+                    if (value[adj[k]] == val && levelOf[adj[k]] >= 0) mine.set(levelOf[adj[k]]);
+                }
+                continue;
+            }
+            assign(var, val);
+            conflict.clear();
+            wipedOut = -1;
+            enqueue(var); // propagate from var: arcs (neighbor, var)
+            boolean ok = (nogoods == null || propagateNogoods(var, val)) && ac3();
+            if (ok && backjump()) return true;
+            if (!ok && wipedOut >= 0) explainWipeout(wipedOut, conflict);
+            if (Metrics.ENABLED) Metrics.CSP_BACKTRACKS.inc();
+            unassign(var);
+            undoToSize(trailSizeBefore);
+            reasonTop = reasonsBefore;
+            if (!conflict.get(level)) { // this level is not to blame: jump over it
+                if (Metrics.ENABLED) Metrics.CSP_BACKJUMPS.inc();
+                return false;
+            }
+            conflict.clear(level);
+            mine.or(conflict);
+        }
+        // values pruned before this level also depend on earlier decisions
+        stamp++;
+        for (int c = 1; c <= K; c++) if (!has(var, c)) explain(var, c, mine);
+        mine.clear(level);
+        if (nogoods != null) learn(mine);
+        conflict.clear();
+        conflict.or(mine);
+        return false;
+    }
+
+    // Adds to out the decision levels that pruned (v, c), following revise prunings back
+    // through the domains that caused them. Call with a fresh stamp per analysis.
+    void explain(int v, int c, BitSet out) {
+        int top = 0;
+        if (work.length < trailTop / 2 + 1) work = new int[trailTop / 2 + 1];
+        if (seen.length < why.length) seen = new int[why.length];
+        work[top++] = trailPos[v * K + c - 1];
+        while (top > 0) {
+            int e = work[--top];
+            if (e < 0 || seen[e] == stamp) continue; // pruned before this copy, or done already
+            seen[e] = stamp;
+            int r = why[e];
+            if (r < n) {
+                // dom(r) was {c'} at that point: the reasons are those of r's other values
+                int cp = trail[2 * e + 1];
+                for (int d = 1; d <= K; d++) {
+                    if (d == cp) continue;
+                    int q = trailPos[r * K + d - 1];
+                    if (q >= 0 && seen[q] != stamp) {
+                        if (top == work.length) work = Arrays.copyOf(work, top * 2);
+                        work[top++] = q;
+                    }
+                }
+            } else if (r < 2 * n) {
+                if (levelOf[r - n] >= 0) out.set(levelOf[r - n]);
+            } else {
+                for (int i = r - 2 * n + 1, end = i + reasons[r - 2 * n]; i < end; i++) {
+                    if (levelOf[reasons[i]] >= 0) out.set(levelOf[reasons[i]]);
+                }
             }
         }
-        // initial AC3
-        if (!initialAC3()) return null;
+    }
+
+    void explainWipeout(int v, BitSet out) {
+        stamp++;
+        for (int c = 1; c <= K; c++) explain(v, c, out);
+    }
+
+    // Weights stay symmetric (weight[u->v] == weight[v->u]), so a var's own arc weights are
+    // also what its neighbors count for it.
+    void useDomWdeg() {
+        weight = new int[adj.length];
+        Arrays.fill(weight, 1);
+        wdeg = new long[n];
+        for (int v = 0; v < n; v++) {
+            for (int k = adjOff[v]; k < adjOff[v + 1]; k++) if (value[adj[k]] == 0) wdeg[v]++;
+        }
+    }
+
+    void bumpWeight(int xi, int xj) {
+        weight[arc(xi, xj)]++;
+        weight[arc(xj, xi)]++;
+        if (value[xj] == 0) wdeg[xi]++;
+        if (value[xi] == 0) wdeg[xj]++;
+    }
+
+    // ---- nogood learning ----
+
+    static final int NOGOOD_MAX_LEN = 16; // longer nogoods rarely fire again and are not kept
+
+    // Learned nogoods: sets of decisions (var = value) that cannot all hold. A bounded ring of
+    // slots, so the oldest nogood is overwritten once capacity is reached, and an index from each
+    // literal to the slots that mention it. Overwritten slots leave stale index entries that are
+    // dropped the next time they are visited.
+    static final class Nogoods {
+        final int capacity, maxLen;
+        final int[][] slot;     // var, value, var, value, ...
+        int next;
+        final int[][] byLit;    // literal v*K + c-1 -> slot numbers
+        final int[] byLitSize;
+
+        Nogoods(int capacity, int maxLen, int literals) {
+            this.capacity = capacity;
+            this.maxLen = maxLen;
+            slot = new int[capacity][];
+            byLit = new int[literals][];
+            byLitSize = new int[literals];
+        }
+
+        boolean mentions(int s, int var, int c) {
+            int[] lits = slot[s];
+            if (lits == null) return false;
+            for (int j = 0; j < lits.length; j += 2) if (lits[j] == var && lits[j + 1] == c) return true;
+            return false;
+        }
+
+        void add(int[] lits, int K) {
+            int s = next;
+            next = (next + 1) % capacity;
+            slot[s] = lits;
+            for (int j = 0; j < lits.length; j += 2) {
+                int key = lits[j] * K + lits[j + 1] - 1;
+                if (byLit[key] == null) byLit[key] = new int[4];
+                else if (byLitSize[key] == byLit[key].length) byLit[key] = Arrays.copyOf(byLit[key], byLitSize[key] * 2);
+                byLit[key][byLitSize[key]++] = s;
+            }
+        }
+    }
+
+    // The decisions at the levels in `levels` leave some variable without a value; remember them.
+    void learn(BitSet levels) {
+        int len = levels.cardinality();
+        if (len == 0 || len > nogoods.maxLen) return;
+        int[] lits = new int[2 * len];
+        int j = 0;
+        for (int l = levels.nextSetBit(0); l >= 0; l = levels.nextSetBit(l + 1)) {
+            lits[j++] = decVar[l];
+            lits[j++] = value[decVar[l]];
+        }
+        nogoods.add(lits, K);
+        if (Metrics.ENABLED) Metrics.CSP_NOGOODS.inc();
+    }
+
+    // var = c was just decided. A nogood whose literals now all hold is a conflict. One with a
+    // single open literal (its var unassigned, its value still in the domain) prunes that value.
+    boolean propagateNogoods(int var, int c) {
+        int key = var * K + c - 1;
+        int[] list = nogoods.byLit[key];
+        for (int i = 0; i < nogoods.byLitSize[key]; ) {
+            int s = list[i];
+            if (!nogoods.mentions(s, var, c)) { list[i] = list[--nogoods.byLitSize[key]]; continue; }
+            i++;
+            int[] lits = nogoods.slot[s];
+            int open = -1;
+            boolean dead = false; // some literal is false, or two are open: nothing to do
+            for (int j = 0; j < lits.length && !dead; j += 2) {
+                int x = lits[j], a = lits[j + 1];
+                if (value[x] == a) continue;
+                if (value[x] != 0 || !has(x, a) || open >= 0) dead = true;
+                else open = j;
+            }
+            if (dead) continue;
+            if (open < 0) {
+                for (int j = 0; j < lits.length; j += 2) if (levelOf[lits[j]] >= 0) conflict.set(levelOf[lits[j]]);
+                clearQueue();
+                return false;
+            }
+            int x = lits[open], a = lits[open + 1];
+            int r = reasonTop;
+            if (reasonTop + lits.length / 2 > reasons.length) reasons = Arrays.copyOf(reasons, reasons.length * 2 + lits.length);
+            reasons[reasonTop++] = lits.length / 2 - 1;
+            for (int j = 0; j < lits.length; j += 2) if (j != open) reasons[reasonTop++] = lits[j];
+            prune(x, a, 2 * n + r);
+            if (Metrics.ENABLED) Metrics.CSP_NOGOOD_PRUNES.inc();
+            if (size[x] == 0) {
+                wipedOut = x;
+                clearQueue();
+                return false;
+            }
+            enqueue(x);
+        }
+        return true;
+    }
+
+    // var id -> color of the current full assignment, with the peeled vars colored greedily in
+    // reverse peel order (each had fewer than K neighbors left when it was peeled)
+    Map<Integer,Integer> assignment() {
+        int[] color = value.clone();
+        BitSet used = new BitSet(K + 1);
+        for (int i = peelOrder.length - 1; i >= 0; i--) {
+            int v = peelOrder[i];
+            used.clear();
+            for (int k = adjOff[v]; k < adjOff[v + 1]; k++) used.set(color[adj[k]]);
+            color[v] = used.nextClearBit(1);
+        }
+        Map<Integer,Integer> out = new HashMap<>();
+        for (int v = 0; v < n; v++) out.put(ids[v], color[v]);
+        return out;
+    }
+
+    // Solve returns assignment map or null if failure
+    Map<Integer,Integer> solve() {
+        Metrics.SolveEvent ev = new Metrics.SolveEvent();
+        ev.begin();
+        Map<Integer,Integer> sol = solveInternal();
+        ev.variables = n;
+        ev.colors = K;
+        ev.solved = sol != null;
+        ev.commit();
+        return sol;
+    }
+
+    private Map<Integer,Integer> solveInternal() {
+        if (!preprocess()) return null;
         boolean ok = backtrack();
-        if (ok) return assignment;
+        if (ok) return assignment();
         return null;
     }
 
     // Parser & runner
+    static class ParsedInput {
+        Graph graph = new Graph();
+        int K = -1;
+    }
+
+    static ParsedInput parseFile(String filename) throws IOException {
+        Metrics.ParseEvent ev = new Metrics.ParseEvent();
+        ev.begin();
+        long t0 = System.nanoTime();
+        ParsedInput out = readInput(filename);
+        if (Metrics.ENABLED) Metrics.PARSE.record(System.nanoTime() - t0);
+        ev.file = filename;
+        ev.commit();
+        return out;
+    }
+
+    private static ParsedInput readInput(String filename) throws IOException {
+        if (Snapshot.isSnapshot(filename)) return Snapshot.readCsp(filename);
+        InputParser.Records rec = InputParser.parse(filename);
+        ParsedInput out = new ParsedInput();
+        if (rec.colors != null) out.K = rec.colors;
+        // every line with at least two fields is an edge; extra fields are ignored
+        for (int i = 0; i < rec.pairs; i++) out.graph.addEdge(rec.pairA[i], rec.pairB[i]);
+        for (int i = 0; i < rec.triples; i++) out.graph.addEdge(rec.triU[i], rec.triV[i]);
+        for (int i = 0; i < rec.extras; i++) out.graph.addEdge(rec.extraA[i], rec.extraB[i]);
+        return out;
+    }
+
     static void usage() {
-        System.out.println("Usage: java CSP <inputfile>");
+        System.out.println("Usage: java CSP <inputfile> [--parallel N [--split-depth D]] [--portfolio N [--seed S]]");
+        System.out.println("       [--chronological] [--wdeg] [--nogoods CAPACITY] [--no-reduce]");
+    }
+
+    // exactly one line: the assignment sorted by variable id, or failure
+    static String format(Map<Integer,Integer> sol) {
+        if (sol == null) return "failure";
+        List<Integer> keys = new ArrayList<>(sol.keySet());
+        Collections.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        sb.append("SOLUTION: {");
+        for (int i=0;i<keys.size();i++) {
+            int k = keys.get(i);
+            sb.append(k).append(": ").append(sol.get(k));
+            if (i < keys.size()-1) sb.append(", ");
+        }
+        sb.append("}");
+        return sb.toString();
     }
 
     public static void main(String[] args) {
         if (args.length < 1) { usage(); return; }
         String filename = args[0];
+        int parallel = 0, portfolio = 0, splitDepth = -1;
+        long seed = 1;
+        boolean chronological = false, wdeg = false, noReduce = false;
+        int nogoods = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--parallel") && i + 1 < args.length) parallel = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--portfolio") && i + 1 < args.length) portfolio = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--split-depth") && i + 1 < args.length) splitDepth = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--chronological")) chronological = true;
+            else if (args[i].equals("--wdeg")) wdeg = true;
+            else if (args[i].equals("--no-reduce")) noReduce = true;
+            else if (args[i].equals("--nogoods") && i + 1 < args.length) nogoods = Integer.parseInt(args[++i]);
+            else { usage(); return; }
+        }
         try {
-            BufferedReader br = new BufferedReader(new FileReader(filename));
-            String line;
-            Graph g = new Graph();
-            int K = -1;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#")) continue;
-                if (line.startsWith("colors=")) {
-                    K = Integer.parseInt(line.substring("colors=".length()).trim());
-                } else {
-                    String[] parts = line.split(",");
-                    if (parts.length >= 2) {
-                        int u = Integer.parseInt(parts[0].trim());
-                        int v = Integer.parseInt(parts[1].trim());
-                        g.addEdge(u, v);
-                    }
-                }
-            }
-            br.close();
+            ParsedInput pi = parseFile(filename);
+            Graph g = pi.graph;
+            int K = pi.K;
             if (K < 1) {
                 System.out.println("failure");
                 return;
             }
             CSP solver = new CSP(g, K);
-            Map<Integer,Integer> sol = solver.solve();
-            if (sol == null) {
-                System.out.println("failure");
-            } else {
-                // produce exactly one line as requested
-                // sort keys for deterministic printing
-                List<Integer> keys = new ArrayList<>(sol.keySet());
-                Collections.sort(keys);
-                StringBuilder sb = new StringBuilder();
-                sb.append("SOLUTION: {");
-                for (int i=0;i<keys.size();i++) {
-                    int k = keys.get(i);
-                    sb.append(k).append(": ").append(sol.get(k));
-                    if (i < keys.size()-1) sb.append(", ");
-                }
-                sb.append("}");
-                System.out.println(sb.toString());
-            }
+            solver.cbj = !chronological;
+            solver.reduce = !noReduce;
+            if (wdeg) solver.useDomWdeg();
+            if (nogoods > 0) solver.nogoods = new Nogoods(nogoods, NOGOOD_MAX_LEN, solver.n * K);
+            Map<Integer,Integer> sol;
+            if (portfolio > 0) sol = ParallelCSP.portfolio(solver, portfolio, seed);
+            else if (parallel > 0) sol = ParallelCSP.split(solver, parallel, splitDepth);
+            else sol = solver.solve();
+            System.out.println(format(sol));
+            Metrics.dumpIfEnabled();
         } catch (IOException ex) {
             System.err.println("IO error: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
 }
-
@@ -0,0 +1,497 @@
+// ContractionHierarchy.java
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Contraction hierarchies over the static, undirected AStar graphs. Preprocessing removes the
+// vertices one by one in order of increasing importance and adds a shortcut u-w whenever the only
+// shortest u-w path ran through the removed vertex. A query then relaxes only "upward" edges
+// (towards later-contracted vertices) from both ends and unpacks the shortcuts on the best
+// meeting path back into original vertex ids.
+public class ContractionHierarchy {
+
+    static final int MAGIC = 0x43484832; // "CHH2"
+    static final int HEADER_BYTES = 5 * 4;
+    // witness searches give up after this many settled vertices and keep the shortcut; bigger means
+    // fewer shortcuts but slower preprocessing. Priorities are only estimates and use a cheaper bound.
+    static final int WITNESS_SETTLE_LIMIT = 500;
+    static final int PRIORITY_SETTLE_LIMIT = 40;
+
+    final AStar.Graph graph;
+    final int[] rank;      // contraction order of each dense index
+    final int[] offsets;   // upward CSR: edges from v to neighbors of higher rank
+    final int[] targets;
+    final double[] weights;
+    final int[] middles;   // vertex a shortcut bypasses, -1 for an original edge
+
+    ContractionHierarchy(AStar.Graph graph, int[] rank, int[] offsets, int[] targets, double[] weights, int[] middles) {
+        this.graph = graph;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    int edgeCount() { return targets.length; }
+
+    int shortcutCount() {
+        int c = 0;
+        for (int m : middles) if (m >= 0) c++;
+        return c;
+    }
+
+    static ContractionHierarchy build(AStar.Graph graph) {
+        return new Contractor(graph).run();
+    }
+
+    // Mutable adjacency used while contracting. Parallel edges are merged to their minimum weight
+    // and self-loops dropped, since neither can be on a shortest path.
+    private static final class Contractor {
+        final AStar.Graph graph;
+        final int n;
+        final int[][] nbr;
+        final double[][] wt;
+        final int[][] mid;
+        final int[] deg;
+        final boolean[] contracted;
+        final int[] deletedNeighbors;
+
+        // witness search scratch
+        final double[] dist;
+        final int[] stamp;
+        final int[] targetStamp; // == generation for the vertices the current search must reach
+        int generation;
+        final AStar.IndexedHeap heap;
+
+        // shortcuts found by the last findShortcuts call
+        int scCount;
+        int[] scFrom = new int[16], scTo = new int[16];
+        double[] scWeight = new double[16];
+
+        Contractor(AStar.Graph graph) {
+            this.graph = graph;
+            n = graph.n;
+            nbr = new int[n][];
+            wt = new double[n][];
+            mid = new int[n][];
+            deg = new int[n];
+            for (int v = 0; v < n; v++) {
+                int d = graph.offsets[v+1] - graph.offsets[v];
+                nbr[v] = new int[Math.max(d, 1)];
+                wt[v] = new double[Math.max(d, 1)];
+                mid[v] = new int[Math.max(d, 1)];
+            }
+            for (int u = 0; u < n; u++) {
+                for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+                    if (graph.targets[i] != u) addOrImprove(u, graph.targets[i], graph.weights[i], -1);
+                }
+            }
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            dist = new double[n];
+            stamp = new int[n];
+            targetStamp = new int[n];
+            heap = new AStar.IndexedHeap(n);
+        }
+
+        void addOrImprove(int u, int v, double w, int m) {
+            int[] a = nbr[u];
+            for (int i = 0; i < deg[u]; i++) {
+                if (a[i] == v) {
+                    if (w < wt[u][i]) { wt[u][i] = w; mid[u][i] = m; }
+                    return;
+                }
+            }
+            if (deg[u] == a.length) {
+                nbr[u] = Arrays.copyOf(a, a.length * 2);
+                wt[u] = Arrays.copyOf(wt[u], a.length * 2);
+                mid[u] = Arrays.copyOf(mid[u], a.length * 2);
+            }
+            nbr[u][deg[u]] = v;
+            wt[u][deg[u]] = w;
+            mid[u][deg[u]] = m;
+            deg[u]++;
+        }
+
+        void removeArc(int u, int v) {
+            int[] a = nbr[u];
+            for (int i = 0; i < deg[u]; i++) {
+                if (a[i] == v) {
+                    int last = --deg[u];
+                    a[i] = a[last];
+                    wt[u][i] = wt[u][last];
+                    mid[u][i] = mid[u][last];
+                    return;
+                }
+            }
+        }
+
+        void nextGeneration() {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                Arrays.fill(targetStamp, 0);
+                generation = 1;
+            }
+        }
+
+        // Bounded Dijkstra from src that avoids `skip` and contracted vertices and stops once
+        // all `targets` marked in targetStamp are settled.
+        void witnessSearch(int src, int skip, double maxDist, int targets, int limit) {
+            heap.clear();
+            dist[src] = 0.0;
+            stamp[src] = generation;
+            heap.update(src, 0.0);
+            int settled = 0;
+            while (!heap.isEmpty() && targets > 0 && heap.peekKey() <= maxDist && settled < limit) {
+                int u = heap.pop();
+                settled++;
+                if (targetStamp[u] == generation) targets--;
+                double du = dist[u];
+                for (int i = 0; i < deg[u]; i++) {
+                    int v = nbr[u][i];
+                    if (v == skip || contracted[v]) continue;
+                    double nd = du + wt[u][i];
+                    if (nd > maxDist) continue; // could never be a witness
+                    if (stamp[v] != generation || nd < dist[v]) {
+                        dist[v] = nd;
+                        stamp[v] = generation;
+                        heap.update(v, nd);
+                    }
+                }
+            }
+        }
+
+        double witnessDist(int v) { return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY; }
+
+        // Shortcuts contracting v would need right now, into scFrom/scTo/scWeight.
+        int findShortcuts(int v, int limit) {
+            scCount = 0;
+            int d = deg[v];
+            for (int i = 0; i + 1 < d; i++) {
+                int u = nbr[v][i];
+                double du = wt[v][i];
+                double maxDist = 0.0;
+                nextGeneration();
+                for (int j = i + 1; j < d; j++) {
+                    maxDist = Math.max(maxDist, du + wt[v][j]);
+                    targetStamp[nbr[v][j]] = generation;
+                }
+                witnessSearch(u, v, maxDist, d - i - 1, limit);
+                for (int j = i + 1; j < d; j++) {
+                    int w = nbr[v][j];
+                    double via = du + wt[v][j];
+                    if (witnessDist(w) > via) addShortcut(u, w, via);
+                }
+            }
+            return scCount;
+        }
+
+        void addShortcut(int u, int w, double weight) {
+            if (scCount == scFrom.length) {
+                scFrom = Arrays.copyOf(scFrom, scCount * 2);
+                scTo = Arrays.copyOf(scTo, scCount * 2);
+                scWeight = Arrays.copyOf(scWeight, scCount * 2);
+            }
+            scFrom[scCount] = u;
+            scTo[scCount] = w;
+            scWeight[scCount] = weight;
+            scCount++;
+        }
+
+        // edge difference plus the number of already contracted neighbors, which spreads
+        // the contraction evenly over the graph
+        double priority(int v) {
+            return findShortcuts(v, PRIORITY_SETTLE_LIMIT) - deg[v] + deletedNeighbors[v];
+        }
+
+        ContractionHierarchy run() {
+            AStar.IndexedHeap queue = new AStar.IndexedHeap(n);
+            for (int v = 0; v < n; v++) queue.update(v, priority(v));
+
+            int[] rank = new int[n];
+            int[][] upT = new int[n][];
+            double[][] upW = new double[n][];
+            int[][] upM = new int[n][];
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                double p = priority(v); // lazy update
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.update(v, p);
+                    continue;
+                }
+                findShortcuts(v, WITNESS_SETTLE_LIMIT);
+
+                // v's remaining edges all lead to vertices contracted later: they are its upward edges
+                int d = deg[v];
+                upT[v] = Arrays.copyOf(nbr[v], d);
+                upW[v] = Arrays.copyOf(wt[v], d);
+                upM[v] = Arrays.copyOf(mid[v], d);
+                for (int i = 0; i < scCount; i++) {
+                    addOrImprove(scFrom[i], scTo[i], scWeight[i], v);
+                    addOrImprove(scTo[i], scFrom[i], scWeight[i], v);
+                }
+                contracted[v] = true;
+                rank[v] = order++;
+                for (int i = 0; i < d; i++) {
+                    int u = upT[v][i];
+                    removeArc(u, v);
+                    deletedNeighbors[u]++;
+                }
+                for (int i = 0; i < d; i++) queue.update(upT[v][i], priority(upT[v][i]));
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) offsets[v+1] = offsets[v] + upT[v].length;
+            int m = offsets[n];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middles = new int[m];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upT[v], 0, targets, offsets[v], upT[v].length);
+                System.arraycopy(upW[v], 0, weights, offsets[v], upW[v].length);
+                System.arraycopy(upM[v], 0, middles, offsets[v], upM[v].length);
+            }
+            return new ContractionHierarchy(graph, rank, offsets, targets, weights, middles);
+        }
+    }
+
+    // Per-thread query state: one stamped distance array and heap per direction.
+    static class Query {
+        final ContractionHierarchy ch;
+        final AStar.SearchContext fwd, bwd;
+        final int[] fwdEdge, bwdEdge; // upward edge used to reach each vertex
+        int[] unpackStack = new int[48];
+
+        Query(ContractionHierarchy ch) {
+            this.ch = ch;
+            fwd = new AStar.SearchContext(ch.graph);
+            bwd = new AStar.SearchContext(ch.graph);
+            fwdEdge = new int[ch.graph.n];
+            bwdEdge = new int[ch.graph.n];
+        }
+
+        AStar.AResult route(int start, int goal) {
+            AStar.Graph graph = ch.graph;
+            long pushes = 0;
+            long expanded = 0;
+            int maxFrontier = 0;
+            Metrics.SearchEvent ev = Metrics.searchStarted("ch");
+            int s = graph.index(start), t = graph.index(goal);
+            double startTime = System.nanoTime();
+            if (s < 0 || t < 0) return Metrics.searched(ev, start, goal, AStar.noPath(0, 0, 0, startTime));
+
+            fwd.reset();
+            bwd.reset();
+            fwd.set(s, 0.0, -1);
+            fwd.open.update(s, 0.0);
+            bwd.set(t, 0.0, -1);
+            bwd.open.update(t, 0.0);
+            pushes += 2;
+
+            double mu = Double.POSITIVE_INFINITY;
+            int meet = -1;
+            final int[] offsets = ch.offsets, targets = ch.targets;
+            final double[] weights = ch.weights;
+            while (true) {
+                // a direction is finished once nothing left in it can beat mu
+                if (!fwd.open.isEmpty() && fwd.open.peekKey() >= mu) fwd.open.clear();
+                if (!bwd.open.isEmpty() && bwd.open.peekKey() >= mu) bwd.open.clear();
+                if (fwd.open.isEmpty() && bwd.open.isEmpty()) break;
+                maxFrontier = Math.max(maxFrontier, fwd.open.size() + bwd.open.size());
+
+                boolean forward = bwd.open.isEmpty()
+                        || (!fwd.open.isEmpty() && fwd.open.peekKey() <= bwd.open.peekKey());
+                AStar.SearchContext side = forward ? fwd : bwd, other = forward ? bwd : fwd;
+                int[] via = forward ? fwdEdge : bwdEdge;
+                int u = side.open.pop();
+                double g_u = side.g[u];
+                expanded++;
+                if (other.reached(u) && g_u + other.g[u] < mu) {
+                    mu = g_u + other.g[u];
+                    meet = u;
+                }
+                for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                    int v = targets[i];
+                    double tentative = g_u + weights[i];
+                    if (tentative < side.g(v)) {
+                        side.set(v, tentative, u);
+                        via[v] = i;
+                        side.open.update(v, tentative);
+                        pushes++;
+                    }
+                }
+            }
+
+            if (meet < 0) return Metrics.searched(ev, start, goal, AStar.noPath(expanded, pushes, maxFrontier, startTime));
+            AStar.AResult res = new AStar.AResult();
+            res.cost = mu;
+            res.path = unpackPath(s, t, meet);
+            res.expanded = expanded;
+            res.pushes = pushes;
+            res.maxFrontier = maxFrontier;
+            res.runtimeSec = (System.nanoTime() - startTime) / 1e9;
+            return Metrics.searched(ev, start, goal, res);
+        }
+
+        private List<Integer> unpackPath(int s, int t, int meet) {
+            // upward chain s -> meet, then the backward chain walked from meet down to t
+            ArrayList<Integer> path = new ArrayList<>();
+            path.add(ch.graph.ids[s]);
+            int len = 0;
+            for (int x = meet; x != s; x = fwd.parent[x]) len++;
+            int[] chain = new int[len];
+            for (int x = meet, i = len - 1; x != s; x = fwd.parent[x]) chain[i--] = x;
+            int prev = s;
+            for (int x : chain) {
+                unpackEdge(prev, x, fwdEdge[x], path);
+                prev = x;
+            }
+            for (int x = meet; x != t; x = bwd.parent[x]) {
+                unpackEdge(x, bwd.parent[x], bwdEdge[x], path);
+            }
+            return path;
+        }
+
+        // Append the original vertices of edge `from`-`to` after `from`. A shortcut bypassing m is
+        // replaced by its two halves, m-from and m-to, which are upward edges of m.
+        private void unpackEdge(int from, int to, int edge, List<Integer> out) {
+            int sp = 0;
+            unpackStack = push(unpackStack, sp, from, to, edge);
+            sp += 3;
+            while (sp > 0) {
+                sp -= 3;
+                int a = unpackStack[sp], b = unpackStack[sp+1], e = unpackStack[sp+2];
+                int m = ch.middles[e];
+                if (m < 0) {
+                    out.add(ch.graph.ids[b]);
+                    continue;
+                }
+                unpackStack = push(unpackStack, sp, m, b, ch.findEdge(m, b));
+                sp += 3;
+                unpackStack = push(unpackStack, sp, a, m, ch.findEdge(m, a));
+                sp += 3;
+            }
+        }
+
+        private static int[] push(int[] stack, int sp, int a, int b, int e) {
+            if (sp + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[sp] = a;
+            stack[sp+1] = b;
+            stack[sp+2] = e;
+            return stack;
+        }
+    }
+
+    // the upward edge of `lower` that leads to `higher`
+    int findEdge(int lower, int higher) {
+        for (int i = offsets[lower], end = offsets[lower+1]; i < end; i++) {
+            if (targets[i] == higher) return i;
+        }
+        throw new IllegalStateException("missing hierarchy edge " + graph.ids[lower] + "-" + graph.ids[higher]);
+    }
+
+    // Layout (little endian): magic, n, arc count of the source graph, m, graph checksum
+    // (Landmarks.checksum), rank[n], offsets[n+1], targets[m], middles[m], weights[m] as doubles.
+    void save(String filename) throws IOException {
+        int n = graph.n, m = edgeCount();
+        long bytes = HEADER_BYTES + 4L * n + 4L * (n + 1) + 8L * m + 8L * m;
+        if (bytes > Integer.MAX_VALUE) throw new IOException("hierarchy too large for a single buffer: " + bytes + " bytes");
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(n).putInt(graph.arcCount()).putInt(m).putInt(Landmarks.checksum(graph));
+        buf.asIntBuffer().put(rank).put(offsets).put(targets).put(middles);
+        buf.position((int) (HEADER_BYTES + 4L * (n + n + 1) + 8L * m));
+        buf.asDoubleBuffer().put(weights);
+        buf.position(buf.capacity()).flip();
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    static ContractionHierarchy load(AStar.Graph graph, String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException(filename + ": hierarchy too large for a single buffer: " + ch.size() + " bytes");
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) throw new IOException(filename + ": not a contraction hierarchy");
+            int n = buf.getInt(), arcs = buf.getInt(), m = buf.getInt(), crc = buf.getInt();
+            if (n != graph.n || arcs != graph.arcCount()) {
+                throw new IOException(filename + ": hierarchy was built for a different graph (" + n + " vertices, " + arcs + " arcs)");
+            }
+            if (crc != Landmarks.checksum(graph)) throw new IOException(filename + ": hierarchy was built for a different graph (checksum mismatch)");
+            if (m < 0 || buf.remaining() != 4L * (n + n + 1 + m + m) + 8L * m) throw new IOException(filename + ": truncated hierarchy");
+            int[] rank = new int[n], offsets = new int[n + 1], targets = new int[m], middles = new int[m];
+            double[] weights = new double[m];
+            buf.asIntBuffer().get(rank).get(offsets).get(targets).get(middles);
+            buf.position((int) (HEADER_BYTES + 4L * (n + n + 1) + 8L * m));
+            buf.asDoubleBuffer().get(weights);
+            return new ContractionHierarchy(graph, rank, offsets, targets, weights, middles);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java ContractionHierarchy <inputfile> [--save FILE | --load FILE] [--verify N]");
+            System.exit(1);
+        }
+        String save = null, load = null;
+        int verify = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--save") && i + 1 < args.length) save = args[++i];
+            else if (args[i].equals("--load") && i + 1 < args.length) load = args[++i];
+            else if (args[i].equals("--verify") && i + 1 < args.length) verify = Integer.parseInt(args[++i]);
+            else System.out.println("Ignoring unknown argument: " + args[i]);
+        }
+        try {
+            AStar.ParsedInput pi = AStar.parseFile(args[0]);
+            AStar.Graph g = pi.graph;
+            long t0 = System.nanoTime();
+            ContractionHierarchy ch = load != null ? load(g, load) : build(g);
+            System.out.printf("Hierarchy: %d vertices, %d upward edges (%d shortcuts), %s in %.6f s%n",
+                    g.n, ch.edgeCount(), ch.shortcutCount(), load != null ? "loaded" : "built", (System.nanoTime() - t0) / 1e9);
+            if (save != null) ch.save(save);
+
+            Query query = new Query(ch);
+            AStar.SearchContext ctx = new AStar.SearchContext(g);
+            if (pi.S != null && pi.D != null) {
+                AStar.AResult r = query.route(pi.S, pi.D);
+                AStar.printModeResult("CH", r, pi.S, pi.D);
+                AStar.AResult u = AStar.astar(g, ctx, pi.S, pi.D, AStar.zeroHeuristic());
+                System.out.println("Matches UCS cost? " + (sameCost(r, u) ? "YES" : "NO"));
+            }
+
+            // random pairs against UCS
+            if (verify > 0 && g.n > 0) {
+                Random rnd = new Random(42);
+                int mismatches = 0;
+                double chSec = 0, ucsSec = 0;
+                for (int q = 0; q < verify; q++) {
+                    int a = g.ids[rnd.nextInt(g.n)], b = g.ids[rnd.nextInt(g.n)];
+                    AStar.AResult r = query.route(a, b);
+                    AStar.AResult u = AStar.astar(g, ctx, a, b, AStar.zeroHeuristic());
+                    chSec += r.runtimeSec;
+                    ucsSec += u.runtimeSec;
+                    if (!sameCost(r, u)) {
+                        mismatches++;
+                        System.out.println("MISMATCH " + a + " -> " + b + ": CH " + r.cost + ", UCS " + u.cost);
+                    }
+                }
+                System.out.printf("Verified %d random pairs against UCS: %d mismatches%n", verify, mismatches);
+                System.out.printf("Mean query time (s): CH %.9f, UCS %.9f%n", chSec / verify, ucsSec / verify);
+                if (mismatches > 0) System.exit(2);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error reading file: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    static boolean sameCost(AStar.AResult a, AStar.AResult b) {
+        if (a.cost == null || b.cost == null) return a.cost == b.cost;
+        return Math.abs(a.cost - b.cost) <= 1e-9 * Math.max(1.0, Math.abs(b.cost));
+    }
+}
@@ -0,0 +1,405 @@
+// DistanceMatrix.java
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shortest-path distances between every source and every target, as one row per source.
+//
+//   dijkstra : one Dijkstra per source on the original graph. It stops as soon as every target
+//              is settled, so a row costs the region within reach of its farthest target, not
+//              one search per pair. Rows can also carry the paths.
+//   buckets  : many-to-many on a contraction hierarchy. An upward search from each target leaves
+//              (target, distance) entries in a bucket at every vertex it settles. An upward search
+//              from each source then scans the buckets of the vertices it settles. d(s, t) is the
+//              smallest up(s, v) + up(t, v) over all v, as in an ordinary CH query.
+//
+// Rows run in parallel, `threads` workers each with their own search state, and go to a RowSink:
+// a double[][] in memory, or a memory-mapped file for matrices too big for the heap. Unreachable
+// pairs and ids not in the graph are Infinity.
+public class DistanceMatrix {
+
+    static final int MAGIC = 0x444d5831; // "DMX1"
+    static final int HEADER_BYTES = 3 * 4;
+
+    // Receives each finished row once, from the worker that computed it. paths is null unless
+    // requested; paths[j] is null when target j is unreachable.
+    interface RowSink {
+        void row(int i, double[] dist, int[][] paths) throws IOException;
+    }
+
+    // Per-thread search state. wanted[v] == round while v is a target of the current row that
+    // has not been settled yet.
+    static final class Worker {
+        final AStar.SearchContext ctx;
+        final int[] wanted;
+        int round;
+
+        Worker(int n) {
+            ctx = new AStar.SearchContext(n);
+            wanted = new int[n];
+        }
+
+        int nextRound() {
+            if (++round == Integer.MAX_VALUE) {
+                Arrays.fill(wanted, 0);
+                round = 1;
+            }
+            return round;
+        }
+    }
+
+    // ---- one Dijkstra per source ----
+
+    // Distances (and optionally paths) from dense index s to the dense indexes in targets; -1
+    // stands for an id that is not in the graph.
+    static void dijkstraRow(AStar.Graph g, Worker w, int s, int[] targets, double[] dist, int[][] paths) {
+        AStar.SearchContext ctx = w.ctx;
+        int round = w.nextRound();
+        ctx.reset();
+        int left = 0;
+        for (int t : targets) {
+            if (t >= 0 && w.wanted[t] != round) {
+                w.wanted[t] = round;
+                left++;
+            }
+        }
+        if (s >= 0 && left > 0) {
+            AStar.IndexedHeap open = ctx.open;
+            ctx.set(s, 0.0, -1);
+            open.update(s, 0.0);
+            final int[] offsets = g.offsets, adj = g.targets;
+            final double[] weights = g.weights;
+            while (!open.isEmpty()) {
+                int u = open.pop();
+                if (w.wanted[u] == round) {
+                    w.wanted[u] = round - 1;
+                    if (--left == 0) break; // every target settled
+                }
+                double g_u = ctx.g[u];
+                for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                    int v = adj[i];
+                    double tentative = g_u + weights[i];
+                    if (tentative < ctx.g(v)) {
+                        ctx.set(v, tentative, u);
+                        open.update(v, tentative);
+                    }
+                }
+            }
+        }
+        for (int j = 0; j < targets.length; j++) {
+            int t = targets[j];
+            dist[j] = t >= 0 && s >= 0 ? ctx.g(t) : Double.POSITIVE_INFINITY;
+            if (paths != null) paths[j] = Double.isInfinite(dist[j]) ? null : path(g, ctx.parent, t);
+        }
+    }
+
+    static int[] path(AStar.Graph g, int[] parent, int t) {
+        int len = 0;
+        for (int x = t; x != -1; x = parent[x]) len++;
+        int[] ids = new int[len];
+        for (int x = t, i = len - 1; x != -1; x = parent[x]) ids[i--] = g.ids[x];
+        return ids;
+    }
+
+    static void dijkstra(AStar.Graph g, int[] sources, int[] targets, int threads, boolean withPaths, RowSink sink)
+            throws IOException, InterruptedException {
+        int[] s = dense(g, sources), t = dense(g, targets);
+        parallel(sources.length, threads, () -> {
+            Worker w = new Worker(g.n);
+            double[] dist = new double[t.length];
+            int[][] paths = withPaths ? new int[t.length][] : null;
+            return i -> {
+                dijkstraRow(g, w, s[i], t, dist, paths);
+                sink.row(i, dist, paths);
+            };
+        });
+    }
+
+    // ---- bucket many-to-many on a contraction hierarchy ----
+
+    // Every vertex the upward search from s settles, with its distance, in settle order.
+    static final class UpwardSpace {
+        int size;
+        int[] vertex = new int[16];
+        double[] dist = new double[16];
+
+        void add(int v, double d) {
+            if (size == vertex.length) {
+                vertex = Arrays.copyOf(vertex, size * 2);
+                dist = Arrays.copyOf(dist, size * 2);
+            }
+            vertex[size] = v;
+            dist[size++] = d;
+        }
+    }
+
+    static void upward(ContractionHierarchy ch, AStar.SearchContext ctx, int s, UpwardSpace out) {
+        out.size = 0;
+        ctx.reset();
+        if (s < 0) return;
+        AStar.IndexedHeap open = ctx.open;
+        ctx.set(s, 0.0, -1);
+        open.update(s, 0.0);
+        final int[] offsets = ch.offsets, adj = ch.targets;
+        final double[] weights = ch.weights;
+        while (!open.isEmpty()) {
+            int u = open.pop();
+            double g_u = ctx.g[u];
+            out.add(u, g_u);
+            for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                int v = adj[i];
+                double tentative = g_u + weights[i];
+                if (tentative < ctx.g(v)) {
+                    ctx.set(v, tentative, u);
+                    open.update(v, tentative);
+                }
+            }
+        }
+    }
+
+    static void buckets(ContractionHierarchy ch, int[] sources, int[] targets, int threads, RowSink sink)
+            throws IOException, InterruptedException {
+        AStar.Graph g = ch.graph;
+        int[] s = dense(g, sources), t = dense(g, targets);
+
+        // target phase: the upward space of every target, in parallel
+        UpwardSpace[] spaces = new UpwardSpace[t.length];
+        parallel(t.length, threads, () -> {
+            AStar.SearchContext ctx = new AStar.SearchContext(g);
+            return j -> {
+                spaces[j] = new UpwardSpace();
+                upward(ch, ctx, t[j], spaces[j]);
+            };
+        });
+        // buckets as CSR: the entries at v are (bucketTarget, bucketDist)[bucketOff[v] .. bucketOff[v+1])
+        int[] bucketOff = new int[g.n + 1];
+        for (UpwardSpace sp : spaces) for (int k = 0; k < sp.size; k++) bucketOff[sp.vertex[k] + 1]++;
+        for (int v = 0; v < g.n; v++) bucketOff[v + 1] += bucketOff[v];
+        int[] cursor = Arrays.copyOf(bucketOff, g.n);
+        int[] bucketTarget = new int[bucketOff[g.n]];
+        double[] bucketDist = new double[bucketOff[g.n]];
+        for (int j = 0; j < t.length; j++) {
+            UpwardSpace sp = spaces[j];
+            for (int k = 0; k < sp.size; k++) {
+                int c = cursor[sp.vertex[k]]++;
+                bucketTarget[c] = j;
+                bucketDist[c] = sp.dist[k];
+            }
+            spaces[j] = null;
+        }
+
+        // source phase: scan the buckets along each source's upward space
+        parallel(s.length, threads, () -> {
+            AStar.SearchContext ctx = new AStar.SearchContext(g);
+            UpwardSpace sp = new UpwardSpace();
+            double[] dist = new double[t.length];
+            return i -> {
+                upward(ch, ctx, s[i], sp);
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                for (int k = 0; k < sp.size; k++) {
+                    int v = sp.vertex[k];
+                    double d = sp.dist[k];
+                    for (int c = bucketOff[v], end = bucketOff[v + 1]; c < end; c++) {
+                        double via = d + bucketDist[c];
+                        if (via < dist[bucketTarget[c]]) dist[bucketTarget[c]] = via;
+                    }
+                }
+                sink.row(i, dist, null);
+            };
+        });
+    }
+
+    // ---- shared plumbing ----
+
+    interface RowTask { void run(int i) throws IOException; }
+
+    // Runs rows 0..count-1 on `threads` workers, each pulling the next row index and keeping the
+    // state its factory made for it.
+    static void parallel(int count, int threads, Callable<RowTask> perWorker) throws IOException, InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(threads, count));
+        ExecutorService exec = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (int k = 0; k < workers; k++) {
+                done.add(exec.submit(() -> {
+                    RowTask task = perWorker.call();
+                    for (int i; (i = next.getAndIncrement()) < count; ) task.run(i);
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    next.set(count); // the other workers stop after their current row
+                    if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                    throw new IllegalStateException("distance matrix row failed", ex.getCause());
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    static int[] dense(AStar.Graph g, int[] ids) {
+        int[] out = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) out[i] = g.index(ids[i]);
+        return out;
+    }
+
+    // in-memory result
+    static RowSink into(double[][] matrix) {
+        return (i, dist, paths) -> matrix[i] = dist.clone();
+    }
+
+    // Matrix file, little endian: magic, rows, cols, then rows * cols doubles in row order. The
+    // file is mapped a row at a time, so the matrix never has to fit in the heap.
+    static final class FileSink implements RowSink, Closeable {
+        final FileChannel ch;
+        final int cols;
+
+        FileSink(String filename, int rows, int cols) throws IOException {
+            this.cols = cols;
+            ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            head.order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(rows).putInt(cols);
+        }
+
+        @Override
+        public void row(int i, double[] dist, int[][] paths) throws IOException {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 8L * cols * i, 8L * cols);
+            buf.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(dist);
+        }
+
+        @Override
+        public void close() throws IOException { ch.close(); }
+    }
+
+    // ---- CLI ----
+
+    // Vertex ids from a file (separated by commas, spaces or newlines, '#' comments), or
+    // "random:N" for N ids drawn from the graph with a fixed seed.
+    static int[] readIds(AStar.Graph g, String spec, long seed) throws IOException {
+        if (spec.startsWith("random:")) {
+            int k = Integer.parseInt(spec.substring(7));
+            SplittableRandom rnd = new SplittableRandom(seed);
+            int[] ids = new int[k];
+            for (int i = 0; i < k; i++) ids[i] = g.ids[rnd.nextInt(g.n)];
+            return ids;
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(spec))) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            for (String tok : line.split("[,\\s]+")) if (!tok.isEmpty()) ids.add(Integer.parseInt(tok));
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    static void usage() {
+        System.out.println("Usage: java DistanceMatrix <graphfile> <sources> <targets> [--threads N] [--paths]");
+        System.out.println("       [--buckets [--ch-load FILE]] [--out FILE] [--verify N]");
+        System.out.println("sources/targets: a file of vertex ids, or random:N. Without --out the matrix is printed");
+        System.out.println("as CSV; --out writes the binary matrix file instead. --paths needs the Dijkstra mode.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) { usage(); System.exit(1); }
+        int threads = Runtime.getRuntime().availableProcessors(), verify = 0;
+        boolean useBuckets = false, withPaths = false;
+        String chLoad = null, outFile = null;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) threads = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--buckets")) useBuckets = true;
+            else if (args[i].equals("--ch-load") && i + 1 < args.length) chLoad = args[++i];
+            else if (args[i].equals("--paths")) withPaths = true;
+            else if (args[i].equals("--out") && i + 1 < args.length) outFile = args[++i];
+            else if (args[i].equals("--verify") && i + 1 < args.length) verify = Integer.parseInt(args[++i]);
+            else { usage(); System.exit(1); }
+        }
+        if (useBuckets && withPaths) {
+            System.out.println("--paths is only available without --buckets");
+            System.exit(1);
+        }
+
+        AStar.Graph g = AStar.parseFile(args[0]).graph;
+        int[] sources = readIds(g, args[1], 1), targets = readIds(g, args[2], 2);
+        ContractionHierarchy ch = null;
+        if (useBuckets) {
+            long t0 = System.nanoTime();
+            ch = chLoad != null ? ContractionHierarchy.load(g, chLoad) : ContractionHierarchy.build(g);
+            System.err.printf("# hierarchy %s in %.3f s%n", chLoad != null ? "loaded" : "built", (System.nanoTime() - t0) / 1e9);
+        }
+
+        double[][] matrix = outFile == null || verify > 0 ? new double[sources.length][] : null;
+        int[][][] paths = withPaths && outFile == null ? new int[sources.length][][] : null;
+        RowSink memory = matrix == null ? null : into(matrix);
+        FileSink file = outFile == null ? null : new FileSink(outFile, sources.length, targets.length);
+        RowSink sink = (i, dist, p) -> {
+            if (memory != null) memory.row(i, dist, p);
+            if (paths != null) paths[i] = p.clone();
+            if (file != null) file.row(i, dist, p);
+        };
+        long t0 = System.nanoTime();
+        try {
+            if (useBuckets) buckets(ch, sources, targets, threads, sink);
+            else dijkstra(g, sources, targets, threads, withPaths, sink);
+        } finally {
+            if (file != null) file.close();
+        }
+        double sec = (System.nanoTime() - t0) / 1e9;
+
+        if (outFile == null) {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+            StringBuilder head = new StringBuilder("source");
+            for (int t : targets) head.append(',').append(t);
+            out.println(head);
+            for (int i = 0; i < sources.length; i++) {
+                StringBuilder sb = new StringBuilder().append(sources[i]);
+                for (double d : matrix[i]) sb.append(',').append(Double.isInfinite(d) ? "Infinity" : String.format(Locale.ROOT, "%.6f", d));
+                out.println(sb);
+            }
+            if (paths != null) {
+                for (int i = 0; i < sources.length; i++) {
+                    for (int j = 0; j < targets.length; j++) {
+                        int[] p = paths[i][j];
+                        StringBuilder sb = new StringBuilder("# path ").append(sources[i]).append(" -> ").append(targets[j]).append(": ");
+                        if (p == null) sb.append("NO PATH");
+                        for (int k = 0; p != null && k < p.length; k++) sb.append(k > 0 ? "->" : "").append(p[k]);
+                        out.println(sb);
+                    }
+                }
+            }
+            out.flush();
+        }
+        System.err.printf("# %d x %d matrix (%s, %d threads) in %.6f s%n", sources.length, targets.length,
+                useBuckets ? "CH buckets" : "Dijkstra", threads, sec);
+
+        // random cells against a plain UCS search
+        if (verify > 0 && sources.length > 0 && targets.length > 0) {
+            Random rnd = new Random(42);
+            AStar.SearchContext ctx = new AStar.SearchContext(g);
+            int mismatches = 0;
+            for (int q = 0; q < verify; q++) {
+                int i = rnd.nextInt(sources.length), j = rnd.nextInt(targets.length);
+                AStar.AResult r = AStar.astar(g, ctx, sources[i], targets[j], AStar.zeroHeuristic());
+                double want = r.cost == null ? Double.POSITIVE_INFINITY : r.cost;
+                double got = matrix[i][j];
+                boolean same = Double.isInfinite(want) ? Double.isInfinite(got) : Math.abs(got - want) <= 1e-9 * Math.max(1.0, want);
+                if (!same) {
+                    mismatches++;
+                    System.err.println("MISMATCH " + sources[i] + " -> " + targets[j] + ": matrix " + got + ", UCS " + want);
+                }
+            }
+            System.err.printf("# verified %d random cells against UCS: %d mismatches%n", verify, mismatches);
+            if (mismatches > 0) System.exit(2);
+        }
+    }
+}
@@ -1,37 +1,313 @@
 // GridGenerator.java
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+// Benchmark input generator. Three kinds of output:
+//
+//   grid      : R x C grid, 4- or 8-connected, optional random obstacles, unit or random weights
+//   geometric : N random points, joined when closer than a radius, weight = distance
+//   csp       : graph-coloring instance with N vertices and a given average degree, optionally
+//               with a planted K-coloring so it is guaranteed solvable
+//
+// Output is streamed. Work is cut into blocks (a band of rows, a range of vertices), and blocks
+// are formatted to bytes in parallel and written to a FileChannel in order, with only a bounded
+// number in flight. Every random choice is a hash of (seed, vertex) or comes from a generator
+// seeded that way, so a given seed yields the same file whatever the thread count.
+// Without arguments this writes the 5x6 astar_medium.txt sample exactly as before.
 public class GridGenerator {
-    public static void main(String[] args) throws Exception {
-        int rows = 5; // x: 0..4
-        int cols = 6; // y: 0..5 -> total 30 nodes
-        PrintWriter pw = new PrintWriter(new FileWriter("astar_medium.txt"));
-        pw.println("# generated grid graph");
-        for (int x=0;x<rows;x++){
-            for (int y=0;y<cols;y++){
-                int id = x*cols + y + 1; // make vertex ids 1..30
-                int cell = x*10 + y;
-                pw.printf("%d,%d%n", id, cell);
+
+    static final int BLOCK_LINES = 1 << 16;          // about how many lines one block formats
+    static final String SQRT2 = Double.toString(Math.sqrt(2.0));
+
+    // Growable byte buffer that formats numbers as ASCII without going through String.
+    static final class Lines {
+        byte[] buf = new byte[1 << 12];
+        int len;
+
+        void room(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+
+        Lines ch(char c) { room(1); buf[len++] = (byte) c; return this; }
+
+        Lines str(String s) {
+            room(s.length());
+            for (int i = 0; i < s.length(); i++) buf[len++] = (byte) s.charAt(i);
+            return this;
+        }
+
+        Lines num(long v) {
+            room(20);
+            if (v < 0) { buf[len++] = '-'; v = -v; }
+            int start = len;
+            do { buf[len++] = (byte) ('0' + v % 10); v /= 10; } while (v > 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) { byte t = buf[i]; buf[i] = buf[j]; buf[j] = t; }
+            return this;
+        }
+
+        // v >= 0 rounded up to 6 decimals, so a weight never drops below the length it covers
+        Lines weight(double v) {
+            long micros = (long) Math.ceil(v * 1e6);
+            num(micros / 1_000_000);
+            long frac = micros % 1_000_000;
+            if (frac != 0) {
+                ch('.');
+                String f = Long.toString(1_000_000 + frac).substring(1);
+                int end = f.length();
+                while (f.charAt(end - 1) == '0') end--;
+                str(f.substring(0, end));
+            }
+            return this;
+        }
+
+        Lines nl() { return ch('\n'); }
+    }
+
+    // splitmix64 finalizer: a well-mixed 64-bit hash of (seed, stream, key)
+    static long hash(long seed, long stream, long key) {
+        long z = seed * 0x9E3779B97F4A7C15L + stream * 0xBF58476D1CE4E5B9L + key * 0x94D049BB133111EBL;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static double uniform(long seed, long stream, long key) {
+        return (hash(seed, stream, key) >>> 11) * 0x1.0p-53;
+    }
+
+    // Writes header, then blocks 0..count-1 in order, then footer. Blocks are built in parallel,
+    // with at most 2 * threads of them held in memory at a time.
+    static void stream(String filename, Lines header, int count, IntFunction<Lines> block, Lines footer) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(ch, header);
+            ArrayDeque<Future<Lines>> pending = new ArrayDeque<>();
+            for (int i = 0; i < count; i++) {
+                final int b = i;
+                pending.add(exec.submit(() -> block.apply(b)));
+                if (pending.size() >= 2 * threads) write(ch, pending.poll().get());
+            }
+            while (!pending.isEmpty()) write(ch, pending.poll().get());
+            write(ch, footer);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("generation interrupted");
+        } catch (ExecutionException ex) {
+            throw new IOException("generator block failed", ex.getCause());
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    static void write(FileChannel ch, Lines lines) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(lines.buf, 0, lines.len);
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    // ---- grids ----
+
+    // Vertex lines for every passable cell, then edge lines (right, down and, when 8-connected,
+    // the two lower diagonals without corner cutting), both in row-major order, then S and D.
+    // S = top-left and D = bottom-right, and those two cells are never blocked.
+    static void grid(String out, int rows, int cols, boolean diagonal, double obstacles, boolean randomWeights, long seed)
+            throws IOException {
+        int cellWidth = Math.max(10, cols); // default layout x*10+y whenever it fits
+        long last = (long) rows * cols - 1;
+        class Grid {
+            boolean free(int x, int y) {
+                if (x < 0 || y < 0 || x >= rows || y >= cols) return false;
+                long c = (long) x * cols + y;
+                return c == 0 || c == last || obstacles <= 0.0 || uniform(seed, 1, c) >= obstacles;
+            }
+            long id(int x, int y) { return (long) x * cols + y + 1; }
+            void edge(Lines l, int x, int y, int x2, int y2, boolean diag) {
+                l.num(id(x, y)).ch(',').num(id(x2, y2)).ch(',');
+                if (!randomWeights) { l.str(diag ? SQRT2 : "1").nl(); return; }
+                // length times a factor in [1, 3): geometric heuristics stay admissible
+                long key = id(x, y) * 4 + (x2 > x ? (y2 > y ? 1 : y2 < y ? 2 : 3) : 0);
+                l.weight((diag ? Math.sqrt(2.0) : 1.0) * (1.0 + 2.0 * uniform(seed, 2, key))).nl();
+            }
+        }
+        Grid g = new Grid();
+        int bandRows = Math.max(1, BLOCK_LINES / Math.max(1, cols));
+        int bands = (rows + bandRows - 1) / bandRows;
+
+        Lines header = new Lines().str("# generated grid graph").nl();
+        if (cellWidth != 10) header.str("cellwidth=").num(cellWidth).nl();
+        Lines footer = new Lines().str("S,1").nl().str("D,").num(last + 1).nl();
+        // vertices of all bands first, then edges: two ordered passes keep the classic layout
+        stream(out, header, 2 * bands, b -> {
+            Lines l = new Lines();
+            boolean edges = b >= bands;
+            int x0 = (edges ? b - bands : b) * bandRows, x1 = Math.min(rows, x0 + bandRows);
+            for (int x = x0; x < x1; x++) {
+                for (int y = 0; y < cols; y++) {
+                    if (!g.free(x, y)) continue;
+                    if (!edges) {
+                        l.num(g.id(x, y)).ch(',').num((long) x * cellWidth + y).nl();
+                        continue;
+                    }
+                    if (g.free(x, y + 1)) g.edge(l, x, y, x, y + 1, false);
+                    if (g.free(x + 1, y)) g.edge(l, x, y, x + 1, y, false);
+                    if (diagonal && g.free(x + 1, y)) {
+                        if (g.free(x, y + 1) && g.free(x + 1, y + 1)) g.edge(l, x, y, x + 1, y + 1, true);
+                        if (g.free(x, y - 1) && g.free(x + 1, y - 1)) g.edge(l, x, y, x + 1, y - 1, true);
+                    }
+                }
             }
+            return l;
+        }, footer);
+    }
+
+    // ---- random geometric graphs ----
+
+    // n points with integer coordinates on a side x side square (side ~ 16 sqrt(n), so collisions
+    // are rare). Points closer than the radius that gives the requested mean degree are joined,
+    // and the weight is the distance rounded up. Only the points and a bucket index are kept in memory.
+    static void geometric(String out, int n, double degree, long seed) throws IOException {
+        int side = (int) Math.min(46340, Math.max(16, Math.ceil(16 * Math.sqrt(n))));
+        double radius = Math.sqrt(degree * (double) side * side / (Math.PI * Math.max(1, n - 1)));
+        int[] px = new int[n], py = new int[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = (int) Long.remainderUnsigned(hash(seed, 3, i), side);
+            py[i] = (int) Long.remainderUnsigned(hash(seed, 4, i), side);
         }
-        // edges (4-neighborhood with weight 1)
-        for (int x=0;x<rows;x++){
-            for (int y=0;y<cols;y++){
-                int id = x*cols + y + 1;
-                if (y+1<cols) {
-                    int id2 = x*cols + (y+1) + 1;
-                    pw.printf("%d,%d,1%n", id, id2);
+        // buckets of radius width, points sorted by bucket (counting sort)
+        int nb = Math.max(1, (int) Math.min(side, Math.ceil(side / Math.max(radius, 1e-9))));
+        double bw = (double) side / nb;
+        int[] start = new int[nb * nb + 1], order = new int[n];
+        for (int i = 0; i < n; i++) start[bucket(px[i], py[i], bw, nb) + 1]++;
+        for (int b = 0; b < nb * nb; b++) start[b + 1] += start[b];
+        int[] fill = Arrays.copyOf(start, nb * nb);
+        for (int i = 0; i < n; i++) order[fill[bucket(px[i], py[i], bw, nb)]++] = i;
+
+        int blocks = Math.max(1, (n + BLOCK_LINES - 1) / BLOCK_LINES);
+        Lines header = new Lines().str("# generated random geometric graph").nl().str("cellwidth=").num(side).nl();
+        Lines footer = new Lines().str("S,1").nl().str("D,").num(n).nl();
+        double r2 = radius * radius;
+        stream(out, header, 2 * blocks, b -> {
+            Lines l = new Lines();
+            boolean edges = b >= blocks;
+            int u0 = (edges ? b - blocks : b) * BLOCK_LINES, u1 = Math.min(n, u0 + BLOCK_LINES);
+            for (int u = u0; u < u1; u++) {
+                if (!edges) {
+                    l.num(u + 1).ch(',').num((long) px[u] * side + py[u]).nl();
+                    continue;
                 }
-                if (x+1<rows) {
-                    int id2 = (x+1)*cols + y + 1;
-                    pw.printf("%d,%d,1%n", id, id2);
+                int bx = Math.min(nb - 1, (int) (px[u] / bw)), by = Math.min(nb - 1, (int) (py[u] / bw));
+                for (int cx = Math.max(0, bx - 1); cx <= Math.min(nb - 1, bx + 1); cx++) {
+                    for (int cy = Math.max(0, by - 1); cy <= Math.min(nb - 1, by + 1); cy++) {
+                        for (int k = start[cx * nb + cy], end = start[cx * nb + cy + 1]; k < end; k++) {
+                            int v = order[k];
+                            if (v <= u) continue;
+                            double dx = px[u] - px[v], dy = py[u] - py[v];
+                            double d2 = dx * dx + dy * dy;
+                            if (d2 <= r2 && d2 > 0) l.num(u + 1).ch(',').num(v + 1).ch(',').weight(Math.sqrt(d2)).nl();
+                        }
+                    }
+                }
+            }
+            return l;
+        }, footer);
+    }
+
+    private static int bucket(int x, int y, double bw, int nb) {
+        return Math.min(nb - 1, (int) (x / bw)) * nb + Math.min(nb - 1, (int) (y / bw));
+    }
+
+    // ---- graph coloring ----
+
+    // G(n, p) with p = degree / (n - 1), sampled by geometric skips so the cost is O(edges).
+    // With planted, every vertex gets a hidden color (hash mod K) and only edges between different
+    // colors are kept, with p scaled by K / (K - 1) so the mean degree still matches; the instance
+    // is then K-colorable. Without planting, K = 3 is hardest around mean degree 4.7.
+    static void csp(String out, int n, double degree, int colors, boolean planted, long seed) throws IOException {
+        double p = Math.min(1.0, degree / Math.max(1, n - 1) * (planted && colors > 1 ? colors / (colors - 1.0) : 1.0));
+        double logQ = Math.log1p(-p);
+        int blocks = Math.max(1, (int) Math.min(n, Math.max(1, (long) (n * degree / 2) / BLOCK_LINES)));
+        int per = (n + blocks - 1) / blocks;
+        Lines header = new Lines().str("colors=").num(colors).nl();
+        stream(out, header, blocks, b -> {
+            Lines l = new Lines();
+            for (int u = b * per, end = Math.min(n, u + per); u < end; u++) {
+                SplittableRandom rnd = new SplittableRandom(hash(seed, 5, u));
+                long cu = Long.remainderUnsigned(hash(seed, 6, u), colors);
+                for (long v = u; ; ) {
+                    v += p >= 1.0 ? 1 : 1 + (long) Math.floor(Math.log(1.0 - rnd.nextDouble()) / logQ);
+                    if (v >= n) break;
+                    if (planted && Long.remainderUnsigned(hash(seed, 6, v), colors) == cu) continue;
+                    l.num(u + 1).ch(',').num(v + 1).nl();
                 }
             }
+            return l;
+        }, new Lines());
+    }
+
+    static void usage() {
+        System.out.println("Usage: java GridGenerator                      (writes the 5x6 astar_medium.txt sample)");
+        System.out.println("       java GridGenerator grid [--rows R] [--cols C] [--diagonal] [--obstacles P] [--weights unit|random]");
+        System.out.println("       java GridGenerator geometric --nodes N [--degree D]");
+        System.out.println("       java GridGenerator csp --nodes N --degree D --colors K [--planted]");
+        System.out.println("Common options: [--seed S] [--out FILE]");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String kind = args.length > 0 ? args[0] : "grid";
+        int rows = 5; // x: 0..4
+        int cols = 6; // y: 0..5 -> total 30 nodes
+        int nodes = 1000, colors = 3;
+        double degree = 4.0, obstacles = 0.0;
+        boolean diagonal = false, randomWeights = false, planted = false;
+        long seed = 1;
+        String out = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--rows") && i + 1 < args.length) rows = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--cols") && i + 1 < args.length) cols = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--diagonal")) diagonal = true;
+            else if (args[i].equals("--obstacles") && i + 1 < args.length) obstacles = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--weights") && i + 1 < args.length) randomWeights = args[++i].equals("random");
+            else if (args[i].equals("--nodes") && i + 1 < args.length) nodes = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--degree") && i + 1 < args.length) degree = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--colors") && i + 1 < args.length) colors = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--planted")) planted = true;
+            else if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--out") && i + 1 < args.length) out = args[++i];
+            else { usage(); System.exit(1); }
         }
-        // source top-left id=1, dest bottom-right id = rows*cols
-        pw.println("S,1");
-        pw.println("D," + (rows*cols));
-        pw.close();
-        System.out.println("astar_medium.txt generated (rows=" + rows + ", cols=" + cols + ")");
+        if (rows < 1 || cols < 1 || nodes < 1 || colors < 1 || (long) rows * cols > Integer.MAX_VALUE - 1) {
+            usage();
+            System.exit(1);
+        }
+        long t0 = System.nanoTime();
+        switch (kind) {
+            case "grid":
+                if (out == null) out = "astar_medium.txt";
+                grid(out, rows, cols, diagonal, obstacles, randomWeights, seed);
+                System.out.println(out + " generated (rows=" + rows + ", cols=" + cols + ")");
+                break;
+            case "geometric":
+                if (out == null) out = "geometric.txt";
+                geometric(out, nodes, degree, seed);
+                System.out.println(out + " generated (nodes=" + nodes + ", mean degree ~" + degree + ")");
+                break;
+            case "csp":
+                if (out == null) out = "csp_generated.txt";
+                csp(out, nodes, degree, colors, planted, seed);
+                System.out.println(out + " generated (nodes=" + nodes + ", mean degree ~" + degree
+                        + ", colors=" + colors + (planted ? ", planted" : "") + ")");
+                break;
+            default:
+                usage();
+                System.exit(1);
+        }
+        System.out.printf("Generated in %.3f s%n", (System.nanoTime() - t0) / 1e9);
     }
 }
-
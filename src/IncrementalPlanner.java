@@ -0,0 +1,406 @@
+// IncrementalPlanner.java
+import java.io.*;
+import java.util.*;
+
+// Lifelong Planning A* (LPA*) for one start/goal pair on a graph whose edge weights change.
+// Every vertex keeps g (the settled cost) and rhs (a one-step lookahead, min over neighbors p of
+// g(p) + w(p,v)). After a weight update only the edge's endpoints are re-evaluated, and replan()
+// re-expands only the vertices that became inconsistent (g != rhs). So the cost of a replan
+// grows with the part of the search the change actually touches, not with the graph size.
+//
+// The planner owns a private copy of the weights; the shared Graph is never modified. An update
+// can lower a weight, raise it, or close an edge with +Infinity. The heuristic must stay
+// consistent (|h(u) - h(v)| <= w(u,v) on every arc). The constructor checks every arc and
+// updateEdge the changed one, which is the only one whose consistency can change. The zero
+// heuristic always passes; Manhattan on a graph with diagonal or shortcut arcs does not. The
+// check allows rounding on the order of 1e-6 of the largest h, which covers ALT's float tables.
+public class IncrementalPlanner {
+
+    final AStar.Graph graph;
+    final double[] weights;   // planner-local copy of graph.weights, parallel to graph.targets
+    final AStar.Heuristic h;
+    final double tolerance;   // rounding slack for |h(u) - h(v)| <= w(u,v) and for key ties
+    final int start, goal;    // dense indexes
+    final double[] g, rhs;
+    private final KeyHeap open;     // exactly the inconsistent vertices
+    private long expanded, pushes;  // counters of the current replan
+    private int maxFrontier;
+
+    IncrementalPlanner(AStar.Graph graph, int startId, int goalId, AStar.Heuristic h) {
+        this.graph = graph;
+        this.weights = graph.weights.clone();
+        this.h = h;
+        this.start = graph.index(startId);
+        this.goal = graph.index(goalId);
+        if (start < 0 || goal < 0) throw new IllegalArgumentException("start or goal is not in the graph");
+        tolerance = tolerance(graph, h);
+        int bad = inconsistentArc(graph, weights, h, tolerance);
+        if (bad >= 0) {
+            int u = arcSource(graph, bad);
+            throw new IllegalArgumentException("heuristic is inconsistent on arc " + graph.ids[u] + "-"
+                    + graph.ids[graph.targets[bad]] + " (weight " + weights[bad] + ")");
+        }
+        int n = graph.n;
+        g = new double[n];
+        rhs = new double[n];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Double.POSITIVE_INFINITY);
+        open = new KeyHeap(n);
+        rhs[start] = 0.0;
+        open.update(start, h.estimate(start), 0.0);
+    }
+
+    // 1e-6 of the largest estimate, at least 1e-6
+    static double tolerance(AStar.Graph graph, AStar.Heuristic h) {
+        double max = 1.0;
+        for (int v = 0; v < graph.n; v++) max = Math.max(max, h.estimate(v));
+        return 1e-6 * max;
+    }
+
+    // First arc u -> v with w(u,v) < |h(u) - h(v)|, or -1 if h is consistent on all of them.
+    static int inconsistentArc(AStar.Graph graph, double[] weights, AStar.Heuristic h, double tolerance) {
+        for (int u = 0; u < graph.n; u++) {
+            double hu = h.estimate(u);
+            for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+                if (!consistent(hu, h.estimate(graph.targets[i]), weights[i], tolerance)) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean consistent(double hu, double hv, double w, double tolerance) {
+        return w + tolerance >= Math.abs(hu - hv);
+    }
+
+    // vertex whose adjacency range holds arc i
+    private static int arcSource(AStar.Graph graph, int arc) {
+        int lo = 0, hi = graph.n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (graph.offsets[mid] <= arc) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // Set the weight of every arc between vertex ids u and v (both directions) to w.
+    // Takes effect on the next replan(); any number of updates may be batched in between.
+    void updateEdge(int uId, int vId, double w) {
+        int u = graph.index(uId), v = graph.index(vId);
+        if (u < 0 || v < 0) throw new IllegalArgumentException("edge " + uId + "-" + vId + " is not in the graph");
+        if (!(w >= 0.0)) throw new IllegalArgumentException("edge weight must be >= 0, got " + w);
+        if (!consistent(h.estimate(u), h.estimate(v), w, tolerance)) {
+            throw new IllegalArgumentException("weight " + w + " on " + uId + "-" + vId + " makes the heuristic inconsistent");
+        }
+        boolean found = setArcs(u, v, w);
+        setArcs(v, u, w);
+        if (!found) throw new IllegalArgumentException("edge " + uId + "-" + vId + " is not in the graph");
+        updateVertex(u);
+        updateVertex(v);
+    }
+
+    private boolean setArcs(int u, int v, double w) {
+        boolean found = false;
+        for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+            if (graph.targets[i] == v) { weights[i] = w; found = true; }
+        }
+        return found;
+    }
+
+    // Current weight of the cheapest arc u -> v (ids), +Infinity if there is none.
+    double weight(int uId, int vId) {
+        int u = graph.index(uId), v = graph.index(vId);
+        double best = Double.POSITIVE_INFINITY;
+        if (u < 0 || v < 0) return best;
+        for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+            if (graph.targets[i] == v && weights[i] < best) best = weights[i];
+        }
+        return best;
+    }
+
+    // rhs(v) = min over neighbors p of g(p) + w(p,v), then requeue
+    private void updateVertex(int v) {
+        if (v != start) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = graph.offsets[v], end = graph.offsets[v+1]; i < end; i++) {
+                double c = g[graph.targets[i]] + weights[i];
+                if (c < best) best = c;
+            }
+            rhs[v] = best;
+        }
+        requeue(v);
+    }
+
+    private void requeue(int v) {
+        if (g[v] != rhs[v]) {
+            double m = Math.min(g[v], rhs[v]);
+            open.update(v, m + h.estimate(v), m);
+            pushes++;
+        } else {
+            open.remove(v);
+        }
+    }
+
+    // Repair the search after the updates since the last call and return the current shortest
+    // start-goal path. Counters cover this call only.
+    AStar.AResult replan() {
+        double startTime = System.nanoTime();
+        expanded = pushes = 0;
+        maxFrontier = 0;
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        while (!open.isEmpty()) {
+            maxFrontier = Math.max(maxFrontier, open.size());
+            double m = Math.min(g[goal], rhs[goal]);
+            double k1 = m + h.estimate(goal);
+            // keys that tie in exact arithmetic can round either way, so keep expanding within the tolerance
+            if (g[goal] == rhs[goal] && !open.lessThan(open.peek(), k1 + tolerance, m)) break;
+            int u = open.pop();
+            expanded++;
+            if (g[u] > rhs[u]) {
+                // overconsistent: settle and relax outwards
+                g[u] = rhs[u];
+                for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                    int v = targets[i];
+                    double c = g[u] + weights[i];
+                    if (v != start && c < rhs[v]) {
+                        rhs[v] = c;
+                        requeue(v);
+                    }
+                }
+            } else {
+                // underconsistent: forget g and re-evaluate u and every vertex that may have used it
+                double old = g[u];
+                g[u] = Double.POSITIVE_INFINITY;
+                updateVertex(u);
+                for (int i = offsets[u], end = offsets[u+1]; i < end; i++) {
+                    int v = targets[i];
+                    if (v != start && rhs[v] == old + weights[i]) updateVertex(v);
+                }
+            }
+        }
+        if (g[goal] == Double.POSITIVE_INFINITY) return AStar.noPath(expanded, pushes, maxFrontier, startTime);
+
+        AStar.AResult res = new AStar.AResult();
+        res.cost = g[goal];
+        res.path = path();
+        res.expanded = expanded;
+        res.pushes = pushes;
+        res.maxFrontier = maxFrontier;
+        res.runtimeSec = (System.nanoTime() - startTime) / 1e9;
+        return res;
+    }
+
+    // walk back from the goal, always to the neighbor p minimizing g(p) + w(p,v)
+    private LinkedList<Integer> path() {
+        LinkedList<Integer> path = new LinkedList<>();
+        int v = goal;
+        path.addFirst(graph.ids[v]);
+        for (int steps = 0; v != start && steps < graph.n; steps++) {
+            int best = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int i = graph.offsets[v], end = graph.offsets[v+1]; i < end; i++) {
+                double c = g[graph.targets[i]] + weights[i];
+                if (c < bestCost) { bestCost = c; best = graph.targets[i]; }
+            }
+            if (best < 0) break;
+            v = best;
+            path.addFirst(graph.ids[v]);
+        }
+        return path;
+    }
+
+    // Indexed binary min-heap ordered by the LPA* key pair (k1, k2), then by index.
+    private static final class KeyHeap {
+        private final int[] heap, pos;
+        private final double[] k1, k2;
+        private int size;
+
+        KeyHeap(int capacity) {
+            heap = new int[capacity];
+            pos = new int[capacity];
+            k1 = new double[capacity];
+            k2 = new double[capacity];
+            Arrays.fill(pos, -1);
+        }
+
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+        int peek() { return heap[0]; }
+
+        // key of v is strictly below (a, b)
+        boolean lessThan(int v, double a, double b) {
+            return k1[v] < a || (k1[v] == a && k2[v] < b);
+        }
+
+        void update(int v, double a, double b) {
+            int i = pos[v];
+            if (i < 0) {
+                i = size++;
+                heap[i] = v;
+                pos[v] = i;
+                k1[v] = a; k2[v] = b;
+                siftUp(i);
+            } else {
+                boolean worse = lessThan(v, a, b);
+                k1[v] = a; k2[v] = b;
+                if (worse) siftDown(i); else siftUp(i);
+            }
+        }
+
+        int pop() {
+            int top = heap[0];
+            removeAt(0);
+            return top;
+        }
+
+        void remove(int v) {
+            if (pos[v] >= 0) removeAt(pos[v]);
+        }
+
+        private void removeAt(int i) {
+            int v = heap[i];
+            pos[v] = -1;
+            int last = heap[--size];
+            if (i == size) return;
+            heap[i] = last;
+            pos[last] = i;
+            siftDown(i);
+            siftUp(pos[last]);
+        }
+
+        private boolean less(int a, int b) {
+            if (k1[a] != k1[b]) return k1[a] < k1[b];
+            if (k2[a] != k2[b]) return k2[a] < k2[b];
+            return a < b;
+        }
+
+        private void siftUp(int i) {
+            int v = heap[i];
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                int pv = heap[p];
+                if (!less(v, pv)) break;
+                heap[i] = pv;
+                pos[pv] = i;
+                i = p;
+            }
+            heap[i] = v;
+            pos[v] = i;
+        }
+
+        private void siftDown(int i) {
+            int v = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int c = 2 * i + 1;
+                int cv = heap[c];
+                int r = c + 1;
+                if (r < size && less(heap[r], cv)) { c = r; cv = heap[r]; }
+                if (!less(cv, v)) break;
+                heap[i] = cv;
+                pos[cv] = i;
+                i = c;
+            }
+            heap[i] = v;
+            pos[v] = i;
+        }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java IncrementalPlanner <inputfile> [--mode ucs|euclidean|manhattan|alt] [--updates FILE] [--verify N]");
+        System.out.println("--updates applies \"u,v,w\" lines as weight changes and replans once.");
+        System.out.println("--verify runs N rounds of random weight changes and checks each replan against fresh UCS.");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) { usage(); System.exit(1); }
+        AStar.Mode mode = AStar.Mode.UCS;
+        String updates = null;
+        int verify = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--mode") && i + 1 < args.length) mode = AStar.Mode.parse(args[++i]);
+            else if (args[i].equals("--updates") && i + 1 < args.length) updates = args[++i];
+            else if (args[i].equals("--verify") && i + 1 < args.length) verify = Integer.parseInt(args[++i]);
+            else System.out.println("Ignoring unknown argument: " + args[i]);
+        }
+        try {
+            AStar.ParsedInput pi = AStar.parseFile(args[0]);
+            AStar.Graph g = pi.graph;
+            if (pi.S == null || pi.D == null) {
+                System.out.println("Input needs S and D lines");
+                System.exit(1);
+            }
+            // raising a weight keeps any consistent heuristic consistent; lowering one is checked
+            // per edge by updateEdge, which rejects changes that undercut the landmark or geometric bound
+            Landmarks lm = mode == AStar.Mode.ALT ? Landmarks.select(g, 8) : null;
+            IncrementalPlanner planner;
+            try {
+                planner = new IncrementalPlanner(g, pi.S, pi.D, mode.toward(g, lm, pi.D));
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Cannot plan with " + mode.label + ": " + ex.getMessage());
+                System.out.println("Use --mode ucs or --mode alt for this graph");
+                System.exit(1);
+                return;
+            }
+            AStar.printModeResult("LPA* initial (" + mode.label + ")", planner.replan(), pi.S, pi.D);
+
+            if (updates != null) {
+                InputParser.Records r = InputParser.parse(updates);
+                for (int i = 0; i < r.triples; i++) planner.updateEdge(r.triU[i], r.triV[i], r.triW[i]);
+                System.out.println("Applied " + r.triples + " weight updates");
+                AStar.printModeResult("LPA* replan", planner.replan(), pi.S, pi.D);
+            }
+
+            if (verify > 0) {
+                // fresh UCS runs on a graph that shares the planner's weight array
+                AStar.Graph current = new AStar.Graph(g.ids, g.cells, g.cellWidth, g.offsets, g.targets, planner.weights);
+                AStar.SearchContext ctx = new AStar.SearchContext(g);
+                Random rnd = new Random(42);
+                int mismatches = 0, skipped = 0;
+                long incExpanded = 0, ucsExpanded = 0;
+                for (int round = 0; round < verify; round++) {
+                    int changes = 1 + rnd.nextInt(5);
+                    for (int c = 0; c < changes && g.arcCount() > 0; c++) {
+                        int u = rnd.nextInt(g.n);
+                        if (g.offsets[u] == g.offsets[u+1]) { c--; continue; }
+                        int arc = g.offsets[u] + rnd.nextInt(g.offsets[u+1] - g.offsets[u]);
+                        double w = rnd.nextInt(10) == 0 ? Double.POSITIVE_INFINITY
+                                 : g.weights[arc] * (0.5 + 2.0 * rnd.nextDouble());
+                        try {
+                            planner.updateEdge(g.ids[u], g.ids[g.targets[arc]], w);
+                        } catch (IllegalArgumentException ex) {
+                            skipped++; // would break the heuristic; keep the old weight
+                        }
+                    }
+                    AStar.AResult inc = planner.replan();
+                    AStar.AResult ucs = AStar.astar(current, ctx, pi.S, pi.D, AStar.zeroHeuristic());
+                    incExpanded += inc.expanded;
+                    ucsExpanded += ucs.expanded;
+                    if (!ContractionHierarchy.sameCost(inc, ucs) || !pathCostMatches(planner, inc)) {
+                        mismatches++;
+                        System.out.println("MISMATCH in round " + round + ": LPA* " + inc.cost + ", UCS " + ucs.cost);
+                    }
+                }
+                System.out.printf("Verified %d update rounds against UCS: %d mismatches, %d updates skipped%n",
+                        verify, mismatches, skipped);
+                System.out.printf("Mean expanded per replan: LPA* %.1f, UCS %.1f%n",
+                        (double) incExpanded / verify, (double) ucsExpanded / verify);
+                if (mismatches > 0) System.exit(2);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error reading file: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // the returned path walks existing arcs and adds up to the reported cost
+    static boolean pathCostMatches(IncrementalPlanner planner, AStar.AResult r) {
+        if (r.cost == null) return true;
+        double sum = 0.0;
+        Integer prev = null;
+        for (int v : r.path) {
+            if (prev != null) sum += planner.weight(prev, v);
+            prev = v;
+        }
+        return Math.abs(sum - r.cost) <= 1e-9 * Math.max(1.0, r.cost);
+    }
+}
@@ -0,0 +1,292 @@
+// InputParser.java
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Byte-level reader for the AStar and CSP text inputs. The file is memory-mapped, and numbers
+// are parsed directly from the bytes, so there are no Strings, split arrays or boxed values per line.
+// Big files are cut at line boundaries into chunks that are parsed in parallel and then merged
+// in file order.
+//
+// Line grammar (leading/trailing blanks and trailing empty fields ignored, as with String.trim
+// and String.split):
+//   # comment | colors=K | cellwidth=W | S,id | D,id | a,b | u,v,w | a,b,... (4+ fields)
+public class InputParser {
+
+    static final long PARALLEL_THRESHOLD = 8L << 20; // files below this are parsed on one thread
+    static final long MAX_CHUNK = 1L << 30;          // a single mapping must stay below 2 GB
+
+    // Parsed lines of one chunk (or of the whole file after merge), in file order per kind.
+    static class Records {
+        int[] pairA = new int[16], pairB = new int[16];     // "a,b": id,cell for AStar, an edge for CSP
+        int pairs;
+        int[] triU = new int[16], triV = new int[16];       // "u,v,w"
+        double[] triW = new double[16];
+        int triples;
+        int[] extraA = new int[16], extraB = new int[16];   // first two fields of longer lines (CSP edges)
+        int extras;
+        Integer S, D, colors, cellWidth;                    // last occurrence wins
+
+        void addPair(int a, int b) {
+            if (pairs == pairA.length) {
+                pairA = Arrays.copyOf(pairA, pairs * 2);
+                pairB = Arrays.copyOf(pairB, pairs * 2);
+            }
+            pairA[pairs] = a;
+            pairB[pairs] = b;
+            pairs++;
+        }
+
+        void addTriple(int u, int v, double w) {
+            if (triples == triU.length) {
+                triU = Arrays.copyOf(triU, triples * 2);
+                triV = Arrays.copyOf(triV, triples * 2);
+                triW = Arrays.copyOf(triW, triples * 2);
+            }
+            triU[triples] = u;
+            triV[triples] = v;
+            triW[triples] = w;
+            triples++;
+        }
+
+        void addExtra(int a, int b) {
+            if (extras == extraA.length) {
+                extraA = Arrays.copyOf(extraA, extras * 2);
+                extraB = Arrays.copyOf(extraB, extras * 2);
+            }
+            extraA[extras] = a;
+            extraB[extras] = b;
+            extras++;
+        }
+
+        // append a later chunk
+        void append(Records r) {
+            for (int i = 0; i < r.pairs; i++) addPair(r.pairA[i], r.pairB[i]);
+            for (int i = 0; i < r.triples; i++) addTriple(r.triU[i], r.triV[i], r.triW[i]);
+            for (int i = 0; i < r.extras; i++) addExtra(r.extraA[i], r.extraB[i]);
+            if (r.S != null) S = r.S;
+            if (r.D != null) D = r.D;
+            if (r.colors != null) colors = r.colors;
+            if (r.cellWidth != null) cellWidth = r.cellWidth;
+        }
+    }
+
+    static Records parse(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long[] bounds = chunkBounds(ch, size);
+            int chunks = bounds.length - 1;
+            Records[] parts = new Records[chunks];
+            try {
+                IntStream range = IntStream.range(0, chunks);
+                (chunks > 1 ? range.parallel() : range).forEach(i -> {
+                    try {
+                        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i+1] - bounds[i]);
+                        parts[i] = new ChunkParser(filename, buf, bounds[i]).run();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            Records out = parts[0];
+            for (int i = 1; i < chunks; i++) out.append(parts[i]);
+            return out;
+        }
+    }
+
+    // Chunk start offsets plus the file size; every inner boundary is just past a '\n'.
+    private static long[] chunkBounds(FileChannel ch, long size) throws IOException {
+        int wanted = size < PARALLEL_THRESHOLD ? 1
+                : (int) Math.max(Runtime.getRuntime().availableProcessors(), (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long step = Math.max(1, size / wanted);
+        long[] bounds = new long[wanted + 1];
+        int k = 1;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i = 1; i < wanted; i++) {
+            long p = Math.max(i * step, bounds[k-1]);
+            long cut = -1;
+            while (cut < 0 && p < size) {
+                probe.clear();
+                int r = ch.read(probe, p);
+                if (r <= 0) break;
+                for (int j = 0; j < r; j++) {
+                    if (probe.get(j) == '\n') { cut = p + j + 1; break; }
+                }
+                p += r;
+            }
+            if (cut < 0 || cut >= size) break;
+            if (cut > bounds[k-1]) bounds[k++] = cut;
+        }
+        bounds[k++] = size;
+        return Arrays.copyOf(bounds, k);
+    }
+
+    private static final class ChunkParser {
+        private static final double[] POW10 = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+        final String file;
+        final ByteBuffer buf;
+        final long base;
+        final Records out = new Records();
+
+        ChunkParser(String file, ByteBuffer buf, long base) {
+            this.file = file;
+            this.buf = buf;
+            this.base = base;
+        }
+
+        Records run() {
+            int end = buf.limit();
+            int p = 0;
+            while (p < end) {
+                // one pass over the line: find its end and the first three commas
+                int c0 = -1, c1 = -1, c2 = -1;
+                int e = p;
+                while (e < end) {
+                    byte b = buf.get(e);
+                    if (b == '\n') break;
+                    if (b == ',') {
+                        if (c0 < 0) c0 = e; else if (c1 < 0) c1 = e; else if (c2 < 0) c2 = e;
+                    }
+                    e++;
+                }
+                line(p, e, c0, c1, c2);
+                p = e + 1;
+            }
+            return out;
+        }
+
+        private void line(int s, int e, int c0, int c1, int c2) {
+            while (s < e && buf.get(s) <= ' ') s++;
+            while (e > s && buf.get(e - 1) <= ' ') e--;
+            if (s == e || buf.get(s) == '#') return;
+            if (startsWith(s, e, "colors=")) {
+                out.colors = parseInt(s + 7, e);
+                return;
+            }
+            if (startsWith(s, e, "cellwidth=")) {
+                out.cellWidth = parseInt(s + 10, e);
+                return;
+            }
+            // empty trailing fields are absent, as with String.split(","): "1,2," is a pair
+            while (e > s && buf.get(e - 1) == ',') e--;
+            if (c2 >= e) c2 = -1;
+            if (c1 >= e) c1 = -1;
+            if (c0 >= e) c0 = -1;
+            if (c0 < 0) return; // single field: ignored
+            if (c1 < 0) {
+                if (isLetter(s, c0, 's')) out.S = parseInt(c0 + 1, e);
+                else if (isLetter(s, c0, 'd')) out.D = parseInt(c0 + 1, e);
+                else out.addPair(parseInt(s, c0), parseInt(c0 + 1, e));
+            } else if (c2 < 0) {
+                out.addTriple(parseInt(s, c0), parseInt(c0 + 1, c1), parseDouble(c1 + 1, e));
+            } else {
+                out.addExtra(parseInt(s, c0), parseInt(c0 + 1, c1));
+            }
+        }
+
+        private boolean startsWith(int s, int e, String prefix) {
+            if (e - s < prefix.length()) return false;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buf.get(s + i) != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        // field [s, e) is exactly the given letter, either case, surrounded by blanks
+        private boolean isLetter(int s, int e, char lower) {
+            while (s < e && buf.get(s) <= ' ') s++;
+            while (e > s && buf.get(e - 1) <= ' ') e--;
+            return e - s == 1 && (buf.get(s) | 0x20) == lower;
+        }
+
+        private int parseInt(int s, int e) {
+            while (s < e && buf.get(s) <= ' ') s++;
+            while (e > s && buf.get(e - 1) <= ' ') e--;
+            int i = s;
+            boolean neg = false;
+            if (i < e && (buf.get(i) == '-' || buf.get(i) == '+')) neg = buf.get(i++) == '-';
+            if (i == e) throw error(s, e, "integer");
+            long v = 0;
+            for (; i < e; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) throw error(s, e, "integer");
+                v = v * 10 + d;
+                if (v > 1L + Integer.MAX_VALUE) throw error(s, e, "integer");
+            }
+            v = neg ? -v : v;
+            if (v > Integer.MAX_VALUE) throw error(s, e, "integer");
+            return (int) v;
+        }
+
+        // Exact fast path for up to 15 significant digits and |exponent| <= 22: both operands are
+        // exact doubles, so one multiply or divide rounds correctly. Anything else (more digits,
+        // hex, Infinity, ...) goes through Double.parseDouble.
+        private double parseDouble(int s, int e) {
+            while (s < e && buf.get(s) <= ' ') s++;
+            while (e > s && buf.get(e - 1) <= ' ') e--;
+            int i = s;
+            boolean neg = false;
+            if (i < e && (buf.get(i) == '-' || buf.get(i) == '+')) neg = buf.get(i++) == '-';
+            long m = 0;
+            int sig = 0, exp = 0;
+            boolean digits = false, point = false;
+            for (; i < e; i++) {
+                byte b = buf.get(i);
+                if (b == '.' && !point) { point = true; continue; }
+                int d = b - '0';
+                if (d < 0 || d > 9) break;
+                digits = true;
+                if (m == 0 && d == 0) { if (point) exp--; continue; }
+                if (sig == 15) return slowDouble(s, e);
+                m = m * 10 + d;
+                sig++;
+                if (point) exp--;
+            }
+            if (!digits) return slowDouble(s, e);
+            if (i < e) {
+                byte b = buf.get(i);
+                if (b != 'e' && b != 'E') return slowDouble(s, e);
+                i++;
+                boolean eneg = false;
+                if (i < e && (buf.get(i) == '-' || buf.get(i) == '+')) eneg = buf.get(i++) == '-';
+                if (i == e) return slowDouble(s, e);
+                int x = 0;
+                for (; i < e; i++) {
+                    int d = buf.get(i) - '0';
+                    if (d < 0 || d > 9 || x > 1000) return slowDouble(s, e);
+                    x = x * 10 + d;
+                }
+                exp += eneg ? -x : x;
+            }
+            double v;
+            if (m == 0) v = 0.0;
+            else if (exp >= 0 && exp <= 22) v = m * POW10[exp];
+            else if (exp < 0 && exp >= -22) v = m / POW10[-exp];
+            else return slowDouble(s, e);
+            return neg ? -v : v;
+        }
+
+        private double slowDouble(int s, int e) {
+            byte[] bytes = new byte[e - s];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(s + i);
+            return Double.parseDouble(new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1));
+        }
+
+        private NumberFormatException error(int s, int e, String what) {
+            byte[] bytes = new byte[Math.min(e - s, 64)];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(s + i);
+            return new NumberFormatException(file + " at byte " + (base + s) + ": bad " + what
+                    + " \"" + new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1) + "\"");
+        }
+    }
+}
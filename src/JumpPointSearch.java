@@ -0,0 +1,370 @@
+// JumpPointSearch.java
+import java.io.*;
+import java.util.*;
+
+// Jump Point Search for graphs that are exactly a uniform-cost grid: every vertex sits on its own
+// cell, and it is joined to each passable 4-neighbor with the same weight. In 8-connected grids
+// it is also joined to each diagonal neighbor whose two orthogonal cells are passable, with
+// weight ~ sqrt(2) times the straight weight (no corner cutting). detect() checks this from the
+// cell coordinates. The search then runs over a bitmap of passable cells. It scans straight
+// (and diagonal) lines without queueing anything, and only stops at cells with forced neighbors
+// or the goal. Of the many equal-cost paths through open space, only one canonical path is
+// ever pushed.
+//
+// Canonical orders: 8-connected paths go diagonal first, then straight. 4-connected paths go
+// vertical (y) first, and every vertical scan looks sideways at each step for horizontal jump points.
+public class JumpPointSearch {
+
+    static final long MAX_AREA_FACTOR = 4; // bounding box may be at most this many times the vertex count
+
+    final AStar.Graph graph;
+    final boolean diagonal;     // 8-connected
+    final double straight, diag;
+    final int width, height;    // bounding box of the cells, grid cell c = gx * height + gy
+    final long minX, minY;
+    final long[] passable;      // bit c set when a vertex sits on grid cell c
+    final int[] vertexAt;       // grid cell -> dense vertex index, -1 when blocked
+    final int[] cellOf;         // dense vertex index -> grid cell
+
+    private JumpPointSearch(AStar.Graph graph, boolean diagonal, double straight, double diag, int width, int height,
+                            long minX, long minY, long[] passable, int[] vertexAt, int[] cellOf) {
+        this.graph = graph;
+        this.diagonal = diagonal;
+        this.straight = straight;
+        this.diag = diag;
+        this.width = width;
+        this.height = height;
+        this.minX = minX;
+        this.minY = minY;
+        this.passable = passable;
+        this.vertexAt = vertexAt;
+        this.cellOf = cellOf;
+    }
+
+    String describe() {
+        return (diagonal ? "8" : "4") + "-connected " + width + "x" + height + " grid";
+    }
+
+    // The grid view of graph, or null if the graph is not exactly a uniform 4- or 8-connected grid.
+    static JumpPointSearch detect(AStar.Graph graph) {
+        int n = graph.n;
+        if (n == 0 || !graph.allCells || graph.arcCount() == 0) return null;
+        long[] xs = new long[n], ys = new long[n];
+        long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE, maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+        for (int v = 0; v < n; v++) {
+            xs[v] = graph.cells[v] / graph.cellWidth;
+            ys[v] = graph.cells[v] % graph.cellWidth;
+            minX = Math.min(minX, xs[v]); maxX = Math.max(maxX, xs[v]);
+            minY = Math.min(minY, ys[v]); maxY = Math.max(maxY, ys[v]);
+        }
+        long w = maxX - minX + 1, h = maxY - minY + 1;
+        if (w * h > MAX_AREA_FACTOR * n + 64 || w * h > Integer.MAX_VALUE - 64) return null;
+        int width = (int) w, height = (int) h;
+
+        long[] passable = new long[(width * height + 63) >>> 6];
+        int[] vertexAt = new int[width * height];
+        int[] cellOf = new int[n];
+        Arrays.fill(vertexAt, -1);
+        for (int v = 0; v < n; v++) {
+            int c = (int) ((xs[v] - minX) * height + (ys[v] - minY));
+            if (vertexAt[c] >= 0) return null; // two vertices on one cell
+            vertexAt[c] = v;
+            cellOf[v] = c;
+            passable[c >>> 6] |= 1L << c;
+        }
+
+        // every arc must be a unit step with the common straight or diagonal weight
+        double straight = Double.NaN, diag = Double.NaN;
+        for (int u = 0; u < n; u++) {
+            for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+                int v = graph.targets[i];
+                long dx = xs[v] - xs[u], dy = ys[v] - ys[u];
+                if (Math.abs(dx) > 1 || Math.abs(dy) > 1 || (dx == 0 && dy == 0)) return null;
+                double wt = graph.weights[i];
+                if (dx == 0 || dy == 0) {
+                    if (Double.isNaN(straight)) straight = wt;
+                    else if (wt != straight) return null;
+                } else {
+                    if (Double.isNaN(diag)) diag = wt;
+                    else if (wt != diag) return null;
+                }
+            }
+        }
+        if (Double.isNaN(straight) || !(straight > 0.0) || Double.isInfinite(straight)) return null;
+        boolean diagonal = !Double.isNaN(diag);
+        if (diagonal && Math.abs(diag - straight * Math.sqrt(2.0)) > 1e-6 * straight) return null;
+
+        JumpPointSearch grid = new JumpPointSearch(graph, diagonal, straight, diagonal ? diag : 0.0,
+                width, height, minX, minY, passable, vertexAt, cellOf);
+
+        // ... and every vertex must have exactly the arcs the bitmap implies, once each
+        for (int u = 0; u < n; u++) {
+            int gx = cellOf[u] / height, gy = cellOf[u] % height;
+            int seen = 0, expected = 0;
+            for (int i = graph.offsets[u], end = graph.offsets[u+1]; i < end; i++) {
+                int v = graph.targets[i];
+                int bit = 1 << ((int) (xs[v] - xs[u] + 1) * 3 + (int) (ys[v] - ys[u] + 1));
+                if ((seen & bit) != 0) return null;
+                seen |= bit;
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (dx == 0 && dy == 0 || dx != 0 && dy != 0 && !diagonal) continue;
+                    if (!grid.free(gx + dx, gy + dy)) continue;
+                    if (dx != 0 && dy != 0 && !(grid.free(gx + dx, gy) && grid.free(gx, gy + dy))) continue;
+                    expected |= 1 << ((dx + 1) * 3 + (dy + 1));
+                }
+            }
+            if (seen != expected) return null;
+        }
+        return grid;
+    }
+
+    boolean free(int gx, int gy) {
+        if (gx < 0 || gy < 0 || gx >= width || gy >= height) return false;
+        int c = gx * height + gy;
+        return (passable[c >>> 6] & (1L << c)) != 0;
+    }
+
+    // Search from start to goal (vertex ids) with the Manhattan (4-connected) or octile
+    // (8-connected) distance as heuristic. Only jump points are pushed and expanded; the returned
+    // path lists every vertex in between. ctx is indexed by dense vertex, like AStar.astar.
+    AStar.AResult search(AStar.SearchContext ctx, int start, int goal) {
+        if (ctx.capacity() < graph.n) {
+            throw new IllegalArgumentException("search context sized for " + ctx.capacity() + " vertices, graph has " + graph.n);
+        }
+        long pushes = 0;
+        long expanded = 0;
+        int maxFrontier = 0;
+
+        Metrics.SearchEvent ev = Metrics.searchStarted("jps");
+        int s = graph.index(start), t = graph.index(goal);
+        double startTime = System.nanoTime();
+        if (s < 0 || t < 0) return Metrics.searched(ev, start, goal, AStar.noPath(0, 0, 0, startTime));
+
+        ctx.reset();
+        AStar.IndexedHeap open = ctx.open;
+        int goalCell = cellOf[t];
+        int tx = goalCell / height, ty = goalCell % height;
+        ctx.set(s, 0.0, -1);
+        open.update(s, estimate(cellOf[s], tx, ty));
+        pushes++;
+
+        int[] succ = new int[8];
+        while (!open.isEmpty()) {
+            maxFrontier = Math.max(maxFrontier, open.size());
+            int u = open.pop();
+            double g_u = ctx.g[u];
+            expanded++;
+
+            if (u == t) {
+                double endTime = System.nanoTime();
+                AStar.AResult res = new AStar.AResult();
+                res.cost = g_u;
+                res.path = path(ctx.parent, t);
+                res.expanded = expanded;
+                res.pushes = pushes;
+                res.maxFrontier = maxFrontier;
+                res.runtimeSec = (endTime - startTime) / 1e9;
+                return Metrics.searched(ev, start, goal, res);
+            }
+
+            int c = cellOf[u];
+            int x = c / height, y = c % height;
+            int p = ctx.parent[u];
+            int count = p < 0 ? allNeighbors(x, y, succ) : prunedNeighbors(x, y, cellOf[p], succ);
+            for (int k = 0; k < count; k++) {
+                int nc = succ[k];
+                int dx = nc / height - x, dy = nc % height - y;
+                int jc = diagonal ? jump8(x + dx, y + dy, dx, dy, goalCell) : jump4(x + dx, y + dy, dx, dy, goalCell);
+                if (jc < 0) continue;
+                int v = vertexAt[jc];
+                double tentative = g_u + distance(c, jc);
+                if (tentative + 1e-12 < ctx.g(v)) {
+                    ctx.set(v, tentative, u);
+                    open.update(v, tentative + estimate(jc, tx, ty));
+                    pushes++;
+                }
+            }
+        }
+        return Metrics.searched(ev, start, goal, AStar.noPath(expanded, pushes, maxFrontier, startTime));
+    }
+
+    // grid distance between two cells; exact path cost when both lie on one straight or diagonal line
+    private double distance(int a, int b) {
+        return estimate(a, b / height, b % height);
+    }
+
+    private double estimate(int c, int tx, int ty) {
+        int dx = Math.abs(c / height - tx), dy = Math.abs(c % height - ty);
+        if (!diagonal) return (dx + dy) * straight;
+        int lo = Math.min(dx, dy), hi = Math.max(dx, dy);
+        return lo * diag + (hi - lo) * straight;
+    }
+
+    private int allNeighbors(int x, int y, int[] out) {
+        int count = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if (dx == 0 && dy == 0 || dx != 0 && dy != 0 && !diagonal) continue;
+                if (!free(x + dx, y + dy)) continue;
+                if (dx != 0 && dy != 0 && !(free(x + dx, y) && free(x, y + dy))) continue;
+                out[count++] = (x + dx) * height + (y + dy);
+            }
+        }
+        return count;
+    }
+
+    // natural and forced neighbors of (x,y) when it was reached from parent cell pc
+    private int prunedNeighbors(int x, int y, int pc, int[] out) {
+        int dx = Integer.signum(x - pc / height), dy = Integer.signum(y - pc % height);
+        int count = 0;
+        if (dx != 0 && dy != 0) {
+            boolean nx = free(x + dx, y), ny = free(x, y + dy);
+            if (ny) out[count++] = x * height + y + dy;
+            if (nx) out[count++] = (x + dx) * height + y;
+            if (nx && ny && free(x + dx, y + dy)) out[count++] = (x + dx) * height + y + dy;
+        } else if (dx != 0) {
+            boolean next = free(x + dx, y), up = free(x, y + 1), down = free(x, y - 1);
+            if (next) {
+                out[count++] = (x + dx) * height + y;
+                if (diagonal && up && free(x + dx, y + 1)) out[count++] = (x + dx) * height + y + 1;
+                if (diagonal && down && free(x + dx, y - 1)) out[count++] = (x + dx) * height + y - 1;
+            }
+            if (up) out[count++] = x * height + y + 1;
+            if (down) out[count++] = x * height + y - 1;
+        } else {
+            boolean next = free(x, y + dy), right = free(x + 1, y), left = free(x - 1, y);
+            if (next) {
+                out[count++] = x * height + y + dy;
+                if (diagonal && right && free(x + 1, y + dy)) out[count++] = (x + 1) * height + y + dy;
+                if (diagonal && left && free(x - 1, y + dy)) out[count++] = (x - 1) * height + y + dy;
+            }
+            if (right) out[count++] = (x + 1) * height + y;
+            if (left) out[count++] = (x - 1) * height + y;
+        }
+        return count;
+    }
+
+    // 4-connected: scan from (x,y) in direction (dx,dy); the jump point's cell, or -1
+    private int jump4(int x, int y, int dx, int dy, int goalCell) {
+        while (true) {
+            if (!free(x, y)) return -1;
+            int c = x * height + y;
+            if (c == goalCell) return c;
+            if (dx != 0) {
+                if (free(x, y - 1) && !free(x - dx, y - 1) || free(x, y + 1) && !free(x - dx, y + 1)) return c;
+            } else {
+                if (free(x - 1, y) && !free(x - 1, y - dy) || free(x + 1, y) && !free(x + 1, y - dy)) return c;
+                if (jump4(x + 1, y, 1, 0, goalCell) >= 0 || jump4(x - 1, y, -1, 0, goalCell) >= 0) return c;
+            }
+            x += dx;
+            y += dy;
+        }
+    }
+
+    // 8-connected without corner cutting; diagonal scans look for straight jump points at each step
+    private int jump8(int x, int y, int dx, int dy, int goalCell) {
+        while (true) {
+            if (!free(x, y)) return -1;
+            int c = x * height + y;
+            if (c == goalCell) return c;
+            if (dx != 0 && dy != 0) {
+                if (jump8(x + dx, y, dx, 0, goalCell) >= 0 || jump8(x, y + dy, 0, dy, goalCell) >= 0) return c;
+            } else if (dx != 0) {
+                if (free(x, y - 1) && !free(x - dx, y - 1) || free(x, y + 1) && !free(x - dx, y + 1)) return c;
+            } else {
+                if (free(x - 1, y) && !free(x - 1, y - dy) || free(x + 1, y) && !free(x + 1, y - dy)) return c;
+            }
+            if (!(free(x + dx, y) && free(x, y + dy))) return -1; // next diagonal step would cut a corner
+            x += dx;
+            y += dy;
+        }
+    }
+
+    // jump point chain back to the start, with the skipped cells filled in
+    private LinkedList<Integer> path(int[] parent, int t) {
+        LinkedList<Integer> path = new LinkedList<>();
+        path.addFirst(graph.ids[t]);
+        for (int v = t; parent[v] >= 0; v = parent[v]) {
+            int a = cellOf[v], b = cellOf[parent[v]];
+            int x = a / height, y = a % height, bx = b / height, by = b % height;
+            int dx = Integer.signum(bx - x), dy = Integer.signum(by - y);
+            while (x != bx || y != by) {
+                x += dx;
+                y += dy;
+                path.addFirst(graph.ids[vertexAt[x * height + y]]);
+            }
+        }
+        return path;
+    }
+
+    // the path walks graph arcs whose weights add up to the reported cost
+    boolean isWalk(AStar.AResult r) {
+        if (r.cost == null) return true;
+        double sum = 0.0;
+        int prev = -1;
+        for (int id : r.path) {
+            int v = graph.index(id);
+            if (prev >= 0) {
+                double w = Double.POSITIVE_INFINITY;
+                for (int i = graph.offsets[prev], end = graph.offsets[prev+1]; i < end; i++) {
+                    if (graph.targets[i] == v) w = Math.min(w, graph.weights[i]);
+                }
+                sum += w;
+            }
+            prev = v;
+        }
+        return Math.abs(sum - r.cost) <= 1e-9 * Math.max(1.0, r.cost);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java JumpPointSearch <inputfile> [--verify N]");
+            System.exit(1);
+        }
+        int verify = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--verify") && i + 1 < args.length) verify = Integer.parseInt(args[++i]);
+            else System.out.println("Ignoring unknown argument: " + args[i]);
+        }
+        try {
+            AStar.ParsedInput pi = AStar.parseFile(args[0]);
+            AStar.Graph g = pi.graph;
+            JumpPointSearch jps = detect(g);
+            if (jps == null) {
+                System.out.println("Not a uniform 4- or 8-connected grid; Jump Point Search does not apply.");
+                System.exit(1);
+            }
+            System.out.println("Grid: " + jps.describe());
+            AStar.SearchContext ctx = new AStar.SearchContext(g);
+            if (pi.S != null && pi.D != null) {
+                AStar.printModeResult("Jump Point Search", jps.search(ctx, pi.S, pi.D), pi.S, pi.D);
+            }
+
+            // random pairs against UCS
+            if (verify > 0) {
+                Random rnd = new Random(42);
+                int mismatches = 0;
+                long jpsPushes = 0, ucsPushes = 0;
+                for (int q = 0; q < verify; q++) {
+                    int a = g.ids[rnd.nextInt(g.n)], b = g.ids[rnd.nextInt(g.n)];
+                    AStar.AResult r = jps.search(ctx, a, b);
+                    AStar.AResult u = AStar.astar(g, ctx, a, b, AStar.zeroHeuristic());
+                    jpsPushes += r.pushes;
+                    ucsPushes += u.pushes;
+                    if (!ContractionHierarchy.sameCost(r, u) || !jps.isWalk(r)) {
+                        mismatches++;
+                        System.out.println("MISMATCH " + a + " -> " + b + ": JPS " + r.cost + ", UCS " + u.cost);
+                    }
+                }
+                System.out.printf("Verified %d random pairs against UCS: %d mismatches%n", verify, mismatches);
+                System.out.printf("Mean pushes: JPS %.1f, UCS %.1f%n", (double) jpsPushes / verify, (double) ucsPushes / verify);
+                if (mismatches > 0) System.exit(2);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error reading file: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+}
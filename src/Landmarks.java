@@ -0,0 +1,166 @@
+// Landmarks.java
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+// ALT preprocessing (A*, landmarks, triangle inequality). For every landmark L we keep d(L,v)
+// for all vertices. The graph is undirected, so |d(L,t) - d(L,v)| <= d(v,t) for each L and the
+// maximum over the landmarks is an admissible, consistent heuristic that follows edge weights
+// instead of cell geometry.
+public class Landmarks {
+
+    static final int MAGIC = 0x414C5432; // "ALT2"
+    static final int HEADER_BYTES = 5 * 4;
+    // floats round to nearest; shave 2 ulps per operand off h so it never overestimates
+    static final double FLOAT_SLACK = 0x1p-23;
+    static final long MAX_ENTRIES = Integer.MAX_VALUE - 8; // largest array length the VM reliably allocates
+
+    final int n;
+    final int k;
+    final int[] landmarks; // dense indexes
+    final float[] dist;    // vertex-major: dist[v*k + i] = d(landmarks[i], v), +INF when unreachable
+
+    Landmarks(int n, int[] landmarks, float[] dist) {
+        this.n = n;
+        this.k = landmarks.length;
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    // Farthest-point selection: the first landmark is the vertex farthest from vertex 0, each
+    // next one maximizes the distance to the closest landmark chosen so far. Vertices no
+    // landmark reaches count as infinitely far, so every component gets covered.
+    static Landmarks select(AStar.Graph graph, int k) {
+        int n = graph.n;
+        k = Math.min(k, n);
+        int[] chosen = new int[k];
+        float[] dist = new float[tableSize(n, k)];
+        if (k == 0) return new Landmarks(n, chosen, dist);
+
+        AStar.SearchContext ctx = new AStar.SearchContext(graph);
+        double[] nearest = new double[n];
+        AStar.settleAll(graph, ctx, 0);
+        int next = farthest(ctx, n);
+        java.util.Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+        for (int i = 0; i < k; i++) {
+            chosen[i] = next;
+            AStar.settleAll(graph, ctx, next);
+            for (int v = 0; v < n; v++) {
+                double d = ctx.g(v);
+                dist[v * k + i] = (float) d;
+                if (d < nearest[v]) nearest[v] = d;
+            }
+            next = 0;
+            for (int v = 1; v < n; v++) {
+                if (nearest[v] > nearest[next]) next = v;
+            }
+        }
+        return new Landmarks(n, chosen, dist);
+    }
+
+    private static int farthest(AStar.SearchContext ctx, int n) {
+        int best = 0;
+        for (int v = 1; v < n; v++) {
+            if (ctx.reached(v) && ctx.g(v) > ctx.g(best)) best = v;
+        }
+        return best;
+    }
+
+    // h(v) = max_i |d(L_i,t) - d(L_i,v)| for the goal vertex id
+    AStar.Heuristic toward(AStar.Graph graph, int goal) {
+        int t = graph.index(goal);
+        if (t < 0 || k == 0) return AStar.zeroHeuristic();
+        final int k = this.k;
+        final float[] dist = this.dist;
+        final float[] toGoal = java.util.Arrays.copyOfRange(dist, t * k, t * k + k);
+        return v -> {
+            double best = 0.0;
+            int row = v * k;
+            for (int i = 0; i < k; i++) {
+                float a = toGoal[i], b = dist[row + i];
+                if (a == Float.POSITIVE_INFINITY || b == Float.POSITIVE_INFINITY) continue;
+                double h = Math.abs(a - b) - FLOAT_SLACK * ((double) a + b);
+                if (h > best) best = h;
+            }
+            return best;
+        };
+    }
+
+    // Layout (little endian): magic, n, arc count, k, graph checksum, k landmark vertex ids, n*k floats.
+    void save(AStar.Graph graph, String filename) throws IOException {
+        long bytes = HEADER_BYTES + 4L * k + 4L * dist.length;
+        if (bytes > Integer.MAX_VALUE) throw new IOException("landmark table too large for a single buffer: " + bytes + " bytes");
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(n).putInt(graph.arcCount()).putInt(k).putInt(checksum(graph));
+        for (int l : landmarks) buf.putInt(graph.ids[l]);
+        buf.asFloatBuffer().put(dist);
+        buf.position(buf.capacity()).flip();
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    static Landmarks load(AStar.Graph graph, String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException(filename + ": landmark table too large for a single buffer: " + ch.size() + " bytes");
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) throw new IOException(filename + ": not a landmark table");
+            int n = buf.getInt(), arcs = buf.getInt(), k = buf.getInt(), crc = buf.getInt();
+            if (n != graph.n || arcs != graph.arcCount()) {
+                throw new IOException(filename + ": landmark table was built for a different graph (" + n + " vertices, " + arcs + " arcs)");
+            }
+            if (crc != checksum(graph)) throw new IOException(filename + ": landmark table was built for a different graph (checksum mismatch)");
+            if (k < 0 || buf.remaining() != 4L * k + 4L * n * k) throw new IOException(filename + ": truncated landmark table");
+            int[] chosen = new int[k];
+            for (int i = 0; i < k; i++) {
+                int id = buf.getInt();
+                chosen[i] = graph.index(id);
+                if (chosen[i] < 0) throw new IOException(filename + ": landmark " + id + " is not in the graph");
+            }
+            float[] dist = new float[tableSize(n, k)];
+            buf.asFloatBuffer().get(dist);
+            return new Landmarks(n, chosen, dist);
+        }
+    }
+
+    // n*k, the length of the distance table; a clear error instead of an int overflow when the
+    // table would not fit in one array
+    static int tableSize(int n, int k) {
+        long entries = (long) n * k;
+        if (entries > MAX_ENTRIES) {
+            throw new IllegalArgumentException("a landmark table for " + n + " vertices and " + k + " landmarks has "
+                    + entries + " entries, more than one array holds (" + MAX_ENTRIES + "); use fewer landmarks");
+        }
+        return (int) entries;
+    }
+
+    // CRC32C over the vertex ids, offsets, targets and weights, i.e. everything the distances depend
+    // on. ContractionHierarchy stores it as well.
+    static int checksum(AStar.Graph graph) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int[] a : new int[][] { graph.ids, graph.offsets, graph.targets }) {
+            for (int x : a) {
+                if (buf.remaining() < 8) flush(crc, buf);
+                buf.putInt(x);
+            }
+        }
+        for (double w : graph.weights) {
+            if (buf.remaining() < 8) flush(crc, buf);
+            buf.putDouble(w);
+        }
+        flush(crc, buf);
+        return (int) crc.getValue();
+    }
+
+    private static void flush(CRC32C crc, ByteBuffer buf) {
+        buf.flip();
+        crc.update(buf);
+        buf.clear();
+    }
+}
@@ -0,0 +1,177 @@
+// Metrics.java
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.*;
+
+// Counters, phase timers and JFR events for both engines.
+//
+// Enabled with -Dmetrics=FILE (or -Dmetrics=true for stderr). The JSON dump is written when
+// AStar or CSP finishes. ENABLED is a static final constant, so every "if (Metrics.ENABLED)"
+// branch is folded away by the JIT when metrics are off, and the hot loops run exactly as
+// before. The JFR events are separate: they cost nothing unless a recording is active, e.g.
+// java -XX:StartFlightRecording=filename=run.jfr AStar ...
+public class Metrics {
+
+    static final String TARGET = System.getProperty("metrics");
+    static final boolean ENABLED = TARGET != null;
+
+    // Monotonic counter; LongAdder keeps BatchQueries threads from contending.
+    static final class Counter {
+        final String name;
+        final LongAdder value = new LongAdder();
+        Counter(String name) { this.name = name; }
+        void inc() { value.increment(); }
+        void add(long n) { value.add(n); }
+    }
+
+    // Accumulated nanoseconds and number of timed sections.
+    static final class Timer {
+        final String name;
+        final LongAdder nanos = new LongAdder(), count = new LongAdder();
+        Timer(String name) { this.name = name; }
+        void record(long ns) { nanos.add(ns); count.increment(); }
+    }
+
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final List<Timer> TIMERS = new ArrayList<>();
+
+    private static Counter counter(String name) { Counter c = new Counter(name); COUNTERS.add(c); return c; }
+    private static Timer timer(String name) { Timer t = new Timer(name); TIMERS.add(t); return t; }
+
+    // A*: decrease-keys replace the stale duplicates an ordinary heap would pop
+    static final Timer PARSE = timer("parse");
+    static final Timer ASTAR_HEURISTIC = timer("astar.heuristic");
+    static final Timer ASTAR_HEAP = timer("astar.heap");
+    static final Timer ASTAR_PATH = timer("astar.path");
+    static final Counter ASTAR_QUERIES = counter("astar.queries");
+    static final Counter ASTAR_EXPANDED = counter("astar.expanded");
+    static final Counter ASTAR_INSERTS = counter("astar.inserts");
+    static final Counter ASTAR_DECREASE_KEYS = counter("astar.decreaseKeys");
+
+    // CSP
+    static final Counter CSP_NODES = counter("csp.nodes");
+    static final Counter CSP_BACKTRACKS = counter("csp.backtracks");
+    static final Counter CSP_REVISIONS = counter("csp.revisions");
+    static final Counter CSP_ENQUEUED = counter("csp.singletonsEnqueued");
+    static final Counter CSP_WIPEOUTS = counter("csp.wipeouts");
+    static final Counter CSP_BACKJUMPS = counter("csp.backjumps");
+    static final Counter CSP_NOGOODS = counter("csp.nogoodsLearned");
+    static final Counter CSP_NOGOOD_PRUNES = counter("csp.nogoodPrunes");
+    static final Counter CSP_PEELED = counter("csp.peeled");
+    static final Counter CSP_CLIQUE_FIXED = counter("csp.cliqueFixed");
+    static final int MAX_DEPTH = 1024; // deeper wipeouts are counted in the last slot
+    static final AtomicLongArray WIPEOUTS_BY_DEPTH = new AtomicLongArray(MAX_DEPTH);
+
+    static void wipeout(int depth) {
+        CSP_WIPEOUTS.inc();
+        WIPEOUTS_BY_DEPTH.incrementAndGet(Math.min(depth, MAX_DEPTH - 1));
+    }
+
+    // Wraps h so every call is timed; only used when ENABLED.
+    static AStar.Heuristic timed(AStar.Heuristic h) {
+        return v -> {
+            long t = System.nanoTime();
+            double e = h.estimate(v);
+            ASTAR_HEURISTIC.record(System.nanoTime() - t);
+            return e;
+        };
+    }
+
+    // ---- JFR events ----
+
+    @Name("astarcsp.Parse")
+    @Label("Input parse")
+    @Category({"AStarCSP"})
+    static class ParseEvent extends Event {
+        @Label("File") String file;
+    }
+
+    @Name("astarcsp.Search")
+    @Label("A* search")
+    @Category({"AStarCSP"})
+    static class SearchEvent extends Event {
+        @Label("Algorithm") String algorithm;
+        @Label("Start") int start;
+        @Label("Goal") int goal;
+        @Label("Expanded") long expanded;
+        @Label("Pushes") long pushes;
+        @Label("Max frontier") int maxFrontier;
+        @Label("Cost") double cost;
+    }
+
+    @Name("astarcsp.Solve")
+    @Label("CSP solve")
+    @Category({"AStarCSP"})
+    static class SolveEvent extends Event {
+        @Label("Variables") int variables;
+        @Label("Colors") int colors;
+        @Label("Solved") boolean solved;
+    }
+
+    static final EventType SEARCH_EVENT = EventType.getEventType(SearchEvent.class);
+
+    // A begun SearchEvent, or null when no JFR recording takes it, so a search without a
+    // recording allocates nothing here.
+    static SearchEvent searchStarted(String algorithm) {
+        if (!SEARCH_EVENT.isEnabled()) return null;
+        SearchEvent ev = new SearchEvent();
+        ev.algorithm = algorithm;
+        ev.begin();
+        return ev;
+    }
+
+    // commit ev (may be null) for a finished search and pass r through
+    static AStar.AResult searched(SearchEvent ev, int start, int goal, AStar.AResult r) {
+        if (ENABLED) {
+            ASTAR_QUERIES.inc();
+            ASTAR_EXPANDED.add(r.expanded);
+        }
+        if (ev != null && ev.shouldCommit()) {
+            ev.start = start;
+            ev.goal = goal;
+            ev.expanded = r.expanded;
+            ev.pushes = r.pushes;
+            ev.maxFrontier = r.maxFrontier;
+            ev.cost = r.cost == null ? Double.NaN : r.cost;
+            ev.commit();
+        }
+        return r;
+    }
+
+    // ---- JSON dump ----
+
+    static String json() {
+        StringBuilder sb = new StringBuilder("{\n  \"counters\": {");
+        for (int i = 0; i < COUNTERS.size(); i++) {
+            Counter c = COUNTERS.get(i);
+            sb.append(i > 0 ? "," : "").append("\n    \"").append(c.name).append("\": ").append(c.value.sum());
+        }
+        sb.append("\n  },\n  \"timers\": {");
+        for (int i = 0; i < TIMERS.size(); i++) {
+            Timer t = TIMERS.get(i);
+            sb.append(i > 0 ? "," : "").append("\n    \"").append(t.name).append("\": {\"count\": ").append(t.count.sum())
+              .append(", \"nanos\": ").append(t.nanos.sum()).append("}");
+        }
+        int deepest = MAX_DEPTH;
+        while (deepest > 0 && WIPEOUTS_BY_DEPTH.get(deepest - 1) == 0) deepest--;
+        sb.append("\n  },\n  \"csp.wipeoutsByDepth\": [");
+        for (int d = 0; d < deepest; d++) sb.append(d > 0 ? ", " : "").append(WIPEOUTS_BY_DEPTH.get(d));
+        sb.append("]\n}\n");
+        return sb.toString();
+    }
+
+    static void dumpIfEnabled() {
+        if (!ENABLED) return;
+        if (TARGET.isEmpty() || TARGET.equals("true")) {
+            System.err.print(json());
+            return;
+        }
+        try (Writer w = new BufferedWriter(new FileWriter(TARGET))) {
+            w.write(json());
+        } catch (IOException ex) {
+            System.err.println("Could not write metrics to " + TARGET + ": " + ex.getMessage());
+        }
+    }
+}
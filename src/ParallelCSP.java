@@ -0,0 +1,141 @@
+// ParallelCSP.java
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Two ways to put more cores on one coloring instance. Both return a solution in the same form
+// as CSP.solve (so CSP.format prints the usual line), but when several colorings exist the one
+// found first wins, which need not be the one the sequential search returns.
+//
+//   split     : fork/join over the top of the search tree. Every (var, value) choice down to the
+//               split depth becomes a task with its own copy of the domains. Below that depth a
+//               task runs the ordinary sequential backtrack on its copy. Idle workers steal tasks.
+//               The instance is unsatisfiable only when every task fails.
+//   portfolio : N complete sequential searches with different variable / value orders and random
+//               tie-breaks. The first one to finish is the answer: a coloring, or a proof that there
+//               is none, since each member explores the whole tree.
+//
+// A shared stop flag (CSP.stop) lets the other tasks unwind as soon as the answer is known.
+public class ParallelCSP {
+
+    // One subtree: copy the parent's state, assign var = val and propagate. Then split again or
+    // search sequentially. The copy is made when the task runs rather than when it is forked, so
+    // tasks waiting in the queues hold only a reference to their (unchanging) parent.
+    // ForkJoinTask is Serializable, but these tasks never leave the pool.
+    @SuppressWarnings("serial")
+    static final class Split extends RecursiveAction {
+        final CSP parent;
+        final int var, val, depth, maxDepth;
+        final AtomicReference<CSP> winner;
+
+        Split(CSP parent, int var, int val, int depth, int maxDepth, AtomicReference<CSP> winner) {
+            this.parent = parent;
+            this.var = var;
+            this.val = val;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.winner = winner;
+        }
+
+        @Override
+        protected void compute() {
+            if (parent.stop.get()) return;
+            CSP csp = parent;
+            if (var >= 0) {
+                csp = new CSP(parent);
+                csp.assign(var, val);
+                csp.enqueue(var);
+                if (!csp.ac3()) return;
+            }
+            if (depth >= maxDepth || csp.assigned == csp.toAssign) {
+                if (csp.backtrack() && winner.compareAndSet(null, csp)) csp.stop.set(true);
+                return;
+            }
+            int next = csp.selectMRV();
+            List<Split> children = new ArrayList<>();
+            for (int c : csp.orderLCV(next)) {
+                if (csp.consistentAssign(next, c)) children.add(new Split(csp, next, c, depth + 1, maxDepth, winner));
+            }
+            invokeAll(children);
+        }
+    }
+
+    // Enough levels for ~16 tasks per thread even when each level only branches in two.
+    static int defaultSplitDepth(int threads) {
+        return 32 - Integer.numberOfLeadingZeros(16 * threads - 1);
+    }
+
+    static Map<Integer,Integer> split(CSP root, int threads, int splitDepth) {
+        Metrics.SolveEvent ev = new Metrics.SolveEvent();
+        ev.begin();
+        root.stop = new AtomicBoolean();
+        AtomicReference<CSP> winner = new AtomicReference<>();
+        if (root.preprocess()) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new Split(root, -1, 0, 0, splitDepth < 0 ? defaultSplitDepth(threads) : splitDepth, winner));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return finish(ev, root, winner.get());
+    }
+
+    // Member 0 is the sequential strategy and member 1 the same with plain ascending values. The
+    // rest break MRV ties by a random rank and shuffle equally scored values, alternating between
+    // LCV and ascending order, each from its own seed; members 2, 3, 6, 7, ... use dom/wdeg.
+    static CSP member(CSP root, int i, long seed) {
+        CSP m = new CSP(root);
+        m.lcv = i % 2 == 0;
+        if (i >= 2) {
+            if (i % 4 >= 2 && m.weight == null) m.useDomWdeg();
+            SplittableRandom rnd = new SplittableRandom(GridGenerator.hash(seed, 7, i));
+            int[] rank = new int[m.n];
+            for (int v = 0; v < m.n; v++) rank[v] = v;
+            for (int v = m.n - 1; v > 0; v--) {
+                int j = rnd.nextInt(v + 1), t = rank[v];
+                rank[v] = rank[j];
+                rank[j] = t;
+            }
+            m.useTieRank(rank);
+            m.valueRnd = rnd.split();
+        }
+        return m;
+    }
+
+    static Map<Integer,Integer> portfolio(CSP root, int members, long seed) {
+        Metrics.SolveEvent ev = new Metrics.SolveEvent();
+        ev.begin();
+        root.stop = new AtomicBoolean();
+        if (!root.preprocess()) return finish(ev, root, null);
+        ExecutorService exec = Executors.newFixedThreadPool(members);
+        CompletionService<CSP> done = new ExecutorCompletionService<>(exec);
+        try {
+            for (int i = 0; i < members; i++) {
+                CSP m = member(root, i, seed);
+                done.submit(() -> m.backtrack() ? m : null);
+            }
+            // nothing sets stop before the first member returns, so its answer is a real one
+            CSP first = done.take().get();
+            root.stop.set(true);
+            return finish(ev, root, first);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("portfolio interrupted");
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("portfolio member failed", ex.getCause());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static Map<Integer,Integer> finish(Metrics.SolveEvent ev, CSP root, CSP solved) {
+        Map<Integer,Integer> sol = solved == null ? null : solved.assignment();
+        ev.variables = root.n;
+        ev.colors = root.K;
+        ev.solved = sol != null;
+        ev.commit();
+        return sol;
+    }
+}
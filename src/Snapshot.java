@@ -0,0 +1,291 @@
+// Snapshot.java
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+// Versioned binary snapshots of parsed inputs, so repeated runs skip text parsing entirely.
+// A snapshot is a fixed header followed by a little-endian payload of raw primitive arrays:
+//
+//   header  : magic "SNAP", version, kind, 0, payload length (long), CRC32C of payload, 0
+//   graph   : n, arcs, cellWidth, flags (1 = S set, 2 = D set), S, D, ids[n], cells[n],
+//             offsets[n+1], targets[arcs], padding to 8 bytes, weights[arcs] (double)
+//   csp     : K, vars, edges, ids[vars], u[edges], v[edges]
+//
+// Loading maps the file, checks the CRC and bulk-copies each array, so startup runs at
+// memory-copy speed once the file is in the page cache.
+public class Snapshot {
+
+    static final int MAGIC = 0x50414E53; // "SNAP"
+    static final int VERSION = 1;
+    static final int KIND_GRAPH = 1, KIND_CSP = 2;
+    static final int HEADER_BYTES = 32;
+    static final long WINDOW = 1L << 30; // largest single mapping used while reading
+
+    static boolean isSnapshot(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            return ch.read(b, 0) == 4 && b.getInt(0) == MAGIC;
+        }
+    }
+
+    // ---- AStar graphs ----
+
+    static void writeGraph(AStar.ParsedInput pi, String filename) throws IOException {
+        AStar.Graph g = pi.graph;
+        try (Out out = new Out(filename, KIND_GRAPH)) {
+            out.putInt(g.n);
+            out.putInt(g.arcCount());
+            out.putInt(g.cellWidth);
+            out.putInt((pi.S != null ? 1 : 0) | (pi.D != null ? 2 : 0));
+            out.putInt(pi.S != null ? pi.S : 0);
+            out.putInt(pi.D != null ? pi.D : 0);
+            out.putInts(g.ids);
+            out.putInts(g.cells);
+            out.putInts(g.offsets);
+            out.putInts(g.targets);
+            out.align8();
+            out.putDoubles(g.weights);
+        }
+    }
+
+    static AStar.ParsedInput readGraph(String filename) throws IOException {
+        try (In in = new In(filename, KIND_GRAPH)) {
+            int n = in.getInt(), arcs = in.getInt(), cellWidth = in.getInt(), flags = in.getInt();
+            int S = in.getInt(), D = in.getInt();
+            if (n < 0 || arcs < 0 || cellWidth < 1) throw new IOException(filename + ": corrupt graph header");
+            int[] ids = in.getInts(n), cells = in.getInts(n), offsets = in.getInts(n + 1), targets = in.getInts(arcs);
+            in.align8();
+            double[] weights = in.getDoubles(arcs);
+            in.expectEnd();
+            AStar.ParsedInput out = new AStar.ParsedInput();
+            out.graph = new AStar.Graph(ids, cells, cellWidth, offsets, targets, weights);
+            if ((flags & 1) != 0) out.S = S;
+            if ((flags & 2) != 0) out.D = D;
+            return out;
+        }
+    }
+
+    // ---- CSP instances ----
+
+    static void writeCsp(CSP.ParsedInput pi, String filename) throws IOException {
+        CSP.Graph g = pi.graph;
+        int[] ids = g.vars.stream().mapToInt(Integer::intValue).sorted().toArray();
+        int edges = 0;
+        for (int u : ids) for (int v : g.neighbors.get(u)) if (u <= v) edges++;
+        int[] us = new int[edges], vs = new int[edges];
+        int k = 0;
+        for (int u : ids) {
+            for (int v : g.neighbors.get(u)) {
+                if (u <= v) { us[k] = u; vs[k] = v; k++; }
+            }
+        }
+        try (Out out = new Out(filename, KIND_CSP)) {
+            out.putInt(pi.K);
+            out.putInt(ids.length);
+            out.putInt(edges);
+            out.putInts(ids);
+            out.putInts(us);
+            out.putInts(vs);
+        }
+    }
+
+    static CSP.ParsedInput readCsp(String filename) throws IOException {
+        try (In in = new In(filename, KIND_CSP)) {
+            int K = in.getInt(), vars = in.getInt(), edges = in.getInt();
+            if (vars < 0 || edges < 0) throw new IOException(filename + ": corrupt CSP header");
+            in.getInts(vars); // vertex list; every vertex of a CSP graph has an edge
+            int[] us = in.getInts(edges), vs = in.getInts(edges);
+            in.expectEnd();
+            CSP.ParsedInput out = new CSP.ParsedInput();
+            out.K = K;
+            for (int i = 0; i < edges; i++) out.graph.addEdge(us[i], vs[i]);
+            return out;
+        }
+    }
+
+    // Buffered little-endian writer that checksums the payload as it goes and fills in the
+    // header on close.
+    private static final class Out implements Closeable {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32C crc = new CRC32C();
+        final int kind;
+        long length;
+
+        Out(String filename, int kind) throws IOException {
+            this.kind = kind;
+            ch = FileChannel.open(Paths.get(filename),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ch.position(HEADER_BYTES);
+        }
+
+        void room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            length += buf.remaining();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        void putInt(int v) throws IOException { room(4); buf.putInt(v); }
+
+        void putInts(int[] a) throws IOException {
+            for (int off = 0; off < a.length; ) {
+                room(4);
+                int len = Math.min(a.length - off, buf.remaining() / 4);
+                buf.asIntBuffer().put(a, off, len);
+                buf.position(buf.position() + 4 * len);
+                off += len;
+            }
+        }
+
+        void putDoubles(double[] a) throws IOException {
+            for (int off = 0; off < a.length; ) {
+                room(8);
+                int len = Math.min(a.length - off, buf.remaining() / 8);
+                buf.asDoubleBuffer().put(a, off, len);
+                buf.position(buf.position() + 8 * len);
+                off += len;
+            }
+        }
+
+        void align8() throws IOException {
+            if (((length + buf.position()) & 7) != 0) putInt(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(0)
+                        .putLong(length).putInt((int) crc.getValue()).putInt(0);
+                header.flip();
+                while (header.hasRemaining()) ch.write(header, header.position());
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    // Sequential reader over the mapped payload; mappings are at most WINDOW bytes so files
+    // above 2 GB work too.
+    private static final class In implements Closeable {
+        final String filename;
+        final FileChannel ch;
+        final long end;
+        long pos = HEADER_BYTES;
+        MappedByteBuffer win;
+        long winStart;
+
+        In(String filename, int kind) throws IOException {
+            this.filename = filename;
+            ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining() && ch.read(header, header.position()) > 0) { }
+                header.flip();
+                if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) throw new IOException(filename + ": not a snapshot");
+                int version = header.getInt();
+                if (version != VERSION) throw new IOException(filename + ": snapshot version " + version + ", expected " + VERSION);
+                int k = header.getInt();
+                if (k != kind) throw new IOException(filename + ": snapshot holds " + (k == KIND_CSP ? "a CSP instance" : "a graph"));
+                header.getInt();
+                long length = header.getLong();
+                int expected = header.getInt();
+                end = HEADER_BYTES + length;
+                if (length < 0 || end != ch.size()) throw new IOException(filename + ": snapshot length does not match the file size");
+                CRC32C crc = new CRC32C();
+                for (long p = HEADER_BYTES; p < end; p += WINDOW) {
+                    crc.update(ch.map(FileChannel.MapMode.READ_ONLY, p, Math.min(WINDOW, end - p)));
+                }
+                if ((int) crc.getValue() != expected) throw new IOException(filename + ": snapshot checksum mismatch");
+            } catch (IOException ex) {
+                ch.close();
+                throw ex;
+            }
+        }
+
+        // make [pos, pos + bytes) readable through win, bytes <= WINDOW
+        ByteBuffer at(long bytes) throws IOException {
+            if (pos + bytes > end) throw new IOException(filename + ": truncated snapshot");
+            if (win == null || pos < winStart || pos + bytes > winStart + win.capacity()) {
+                winStart = pos;
+                win = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW, end - pos));
+                win.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            win.position((int) (pos - winStart));
+            pos += bytes;
+            return win;
+        }
+
+        int getInt() throws IOException { return at(4).getInt(); }
+
+        int[] getInts(int count) throws IOException {
+            int[] a = new int[count];
+            for (int off = 0; off < count; ) {
+                int len = (int) Math.min(count - off, WINDOW / 4);
+                at(4L * len).asIntBuffer().get(a, off, len);
+                off += len;
+            }
+            return a;
+        }
+
+        double[] getDoubles(int count) throws IOException {
+            double[] a = new double[count];
+            for (int off = 0; off < count; ) {
+                int len = (int) Math.min(count - off, WINDOW / 8);
+                at(8L * len).asDoubleBuffer().get(a, off, len);
+                off += len;
+            }
+            return a;
+        }
+
+        void align8() throws IOException {
+            if ((pos & 7) != 0) getInt();
+        }
+
+        void expectEnd() throws IOException {
+            if (pos != end) throw new IOException(filename + ": " + (end - pos) + " unexpected trailing bytes");
+        }
+
+        @Override
+        public void close() throws IOException { ch.close(); }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java Snapshot astar|csp <input.txt> <output.snap>");
+        System.out.println("Snapshots load with the usual commands, e.g. java AStar graph.snap");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) { usage(); return; }
+        try {
+            long t0 = System.nanoTime();
+            if (args[0].equals("astar")) {
+                AStar.ParsedInput pi = AStar.parseFile(args[1]);
+                writeGraph(pi, args[2]);
+                System.out.printf("Wrote graph snapshot: %d vertices, %d arcs%n", pi.graph.n, pi.graph.arcCount());
+            } else if (args[0].equals("csp")) {
+                CSP.ParsedInput pi = CSP.parseFile(args[1]);
+                writeCsp(pi, args[2]);
+                System.out.printf("Wrote CSP snapshot: %d variables, colors=%d%n", pi.graph.vars.size(), pi.K);
+            } else {
+                usage();
+                return;
+            }
+            System.out.printf("Converted in %.6f s%n", (System.nanoTime() - t0) / 1e9);
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+}
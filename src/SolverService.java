@@ -0,0 +1,504 @@
+// SolverService.java
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Resident solver. Named graph and CSP instances are parsed once and stay loaded. The service then
+// answers requests until it is shut down, over stdin/stdout or a TCP socket on the loopback
+// interface. That saves the JVM start, parse and cold JIT that every run of AStar or CSP pays.
+// Each request runs on its own virtual thread with a timeout and can be cancelled. Answers come
+// back as they finish, tagged with the request id, so their order need not match the requests.
+//
+// Requests, one per line ('#' starts a comment):
+//   ID path GRAPH S D [mode=ucs|euclidean|manhattan|alt] [bidirectional] [timeout=MS]
+//   ID color CSP [k=K] [timeout=MS]
+//   ID cancel OTHER_ID          (a request of the same connection)
+//   ID load graph|csp NAME FILE
+//   ID list
+//   ID shutdown                 (socket mode: stop accepting connections)
+// Answers:
+//   ID ok cost=C expanded=E path=1->2->3   (cost=none and no path when D is unreachable)
+//   ID ok SOLUTION: {...}  or  ID ok failure
+//   ID timeout | ID cancelled | ID error MESSAGE
+// A bidirectional path request whose heuristic fails AStar.validModes on the graph is refused
+// with an error, since the bidirectional stop rule is only exact for consistent heuristics.
+//
+// A timed-out or cancelled request is answered at once. Its search then stops on its own
+// thread: a path query within SearchContext.STOP_POLL expansions through SearchContext.stop,
+// a coloring at its next search node through CSP.stop. Loads parse on a virtual thread too. The
+// name is taken at once, so later requests for it wait for the parse instead of failing.
+//
+// `java SolverService client --port P [FILE|-]` sends a request file to a running service and
+// prints the answers.
+public class SolverService {
+
+    static final class GraphInstance {
+        final AStar.Graph graph;
+        final BlockingQueue<BatchQueries.Worker> workers; // pooled search contexts, as in BatchQueries
+        final EnumSet<AStar.Mode> valid; // modes bidirectional search may use (AStar.validModes)
+        private final CompletableFuture<Landmarks> landmarks = new CompletableFuture<>();
+        private final AtomicBoolean selecting = new AtomicBoolean();
+
+        GraphInstance(AStar.Graph graph, int contexts) {
+            this.graph = graph;
+            valid = AStar.validModes(graph);
+            workers = new ArrayBlockingQueue<>(contexts);
+            for (int i = 0; i < contexts; i++) workers.add(new BatchQueries.Worker(graph, true));
+        }
+
+        // Built by the first ALT query. The others wait on the future, which parks a virtual
+        // thread, where a monitor held through the selection would pin its carrier.
+        Landmarks landmarks() {
+            if (selecting.compareAndSet(false, true)) {
+                try {
+                    landmarks.complete(Landmarks.select(graph, 8));
+                } catch (Throwable ex) {
+                    landmarks.completeExceptionally(ex);
+                    throw ex;
+                }
+            }
+            return landmarks.join();
+        }
+    }
+
+    static final class CspInstance {
+        final CSP.Graph graph;
+        final int K;
+        // One untouched solver per color count. Requests search on copies of it, which share its
+        // CSR arrays, so the Graph maps are only walked once per K.
+        final ConcurrentHashMap<Integer, CSP> byK = new ConcurrentHashMap<>();
+
+        CspInstance(CSP.Graph graph, int K) { this.graph = graph; this.K = K; }
+
+        CSP fresh(int k) { return new CSP(byK.computeIfAbsent(k, x -> new CSP(graph, x))); }
+    }
+
+    // One connection (or stdin). Answers are written whole lines at a time from many threads.
+    static final class Session {
+        final PrintWriter out;
+        final ConcurrentHashMap<String, Request> live = new ConcurrentHashMap<>();
+        private int inFlight;
+
+        Session(PrintWriter out) { this.out = out; }
+
+        synchronized void send(String line) {
+            out.println(line);
+            out.flush();
+        }
+
+        synchronized void started() { inFlight++; }
+        synchronized void finished() { if (--inFlight == 0) notifyAll(); }
+        synchronized void awaitIdle() throws InterruptedException { while (inFlight > 0) wait(); }
+    }
+
+    static final class Request {
+        final String id;
+        final Session session;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean stop = new AtomicBoolean(); // CSP.stop or SearchContext.stop of the work
+        volatile Future<?> future;
+        volatile ScheduledFuture<?> timer;
+
+        Request(String id, Session session) { this.id = id; this.session = session; }
+    }
+
+    // pending or finished loads by name; a failed load removes itself
+    final ConcurrentHashMap<String, CompletableFuture<GraphInstance>> graphs = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, CompletableFuture<CspInstance>> csps = new ConcurrentHashMap<>();
+    final ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+    final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "solver-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+    final int contexts;
+    final long defaultTimeoutMs;
+    volatile ServerSocket server;
+
+    SolverService(int contexts, long defaultTimeoutMs) {
+        this.contexts = contexts;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    CompletableFuture<GraphInstance> loadGraph(String name, String file) {
+        return load(graphs, name, () -> new GraphInstance(AStar.parseFile(file).graph, contexts));
+    }
+
+    CompletableFuture<CspInstance> loadCsp(String name, String file) {
+        return load(csps, name, () -> {
+            CSP.ParsedInput pi = CSP.parseFile(file);
+            return new CspInstance(pi.graph, pi.K);
+        });
+    }
+
+    // Publishes the pending instance under name, then parses on a virtual thread.
+    <T> CompletableFuture<T> load(ConcurrentHashMap<String, CompletableFuture<T>> instances, String name, Callable<T> parse) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        instances.put(name, f);
+        exec.execute(() -> {
+            try {
+                f.complete(parse.call());
+            } catch (Throwable ex) {
+                instances.remove(name, f);
+                f.completeExceptionally(ex);
+            }
+        });
+        return f;
+    }
+
+    // the loaded instance, waiting for a load still in progress
+    static <T> T await(CompletableFuture<T> f, String name) throws IOException, InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            throw new IOException("loading '" + name + "' failed: " + ex.getCause().getMessage());
+        }
+    }
+
+    static String loaded(ConcurrentHashMap<String, ? extends CompletableFuture<?>> instances) {
+        TreeSet<String> names = new TreeSet<>();
+        instances.forEach((name, f) -> { if (f.isDone() && !f.isCompletedExceptionally()) names.add(name); });
+        return String.join(",", names);
+    }
+
+    // ---- requests ----
+
+    void handle(Session s, String line) {
+        String[] t = line.split("\\s+");
+        String id = t[0];
+        if (t.length < 2) { s.send(id + " error expected: ID OP ARGS"); return; }
+        try {
+            switch (t[1]) {
+                case "path":
+                case "color":
+                    submit(s, id, t);
+                    break;
+                case "cancel": {
+                    if (t.length != 3) throw new IllegalArgumentException("expected: ID cancel OTHER_ID");
+                    Request r = s.live.get(t[2]);
+                    s.send(id + (r != null && abort(r, "cancelled") ? " ok" : " error no request " + t[2] + " in flight"));
+                    break;
+                }
+                case "load": {
+                    if (t.length != 5) throw new IllegalArgumentException("expected: ID load graph|csp NAME FILE");
+                    CompletableFuture<?> f;
+                    if (t[2].equals("graph")) f = loadGraph(t[3], t[4]);
+                    else if (t[2].equals("csp")) f = loadCsp(t[3], t[4]);
+                    else throw new IllegalArgumentException("unknown instance kind '" + t[2] + "'");
+                    s.started();
+                    f.whenComplete((x, ex) -> {
+                        s.send(id + (ex == null ? " ok" : " error " + ex.getMessage()));
+                        s.finished();
+                    });
+                    break;
+                }
+                case "list":
+                    s.send(id + " ok graphs=" + loaded(graphs) + " csps=" + loaded(csps));
+                    break;
+                case "shutdown": {
+                    s.send(id + " ok");
+                    ServerSocket ss = server;
+                    if (ss != null) ss.close();
+                    break;
+                }
+                default:
+                    s.send(id + " error unknown op '" + t[1] + "'");
+            }
+        } catch (IOException | RuntimeException ex) {
+            s.send(id + " error " + ex.getMessage());
+        }
+    }
+
+    // key=value and flag arguments from t[from] on
+    static Map<String, String> options(String[] t, int from) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = from; i < t.length; i++) {
+            int eq = t[i].indexOf('=');
+            if (eq < 0) opts.put(t[i], "");
+            else opts.put(t[i].substring(0, eq), t[i].substring(eq + 1));
+        }
+        return opts;
+    }
+
+    // Arguments are checked here, so a malformed request is answered at once; the work itself
+    // runs on a virtual thread.
+    void submit(Session s, String id, String[] t) {
+        Request r = new Request(id, s);
+        boolean path = t[1].equals("path");
+        Map<String, String> opts = options(t, path ? 5 : 3);
+        long timeoutMs = opts.containsKey("timeout") ? Long.parseLong(opts.get("timeout")) : defaultTimeoutMs;
+        Callable<String> work = path ? pathTask(t, opts, r.stop) : colorTask(t, opts, r.stop);
+        if (s.live.putIfAbsent(id, r) != null) throw new IllegalArgumentException("request " + id + " is already in flight");
+        s.started();
+        r.future = exec.submit(() -> {
+            String answer;
+            try {
+                answer = work.call();
+            } catch (StackOverflowError ex) {
+                answer = "error search is deeper than the thread stack";
+            } catch (Exception ex) {
+                answer = "error " + ex.getMessage();
+            }
+            // stop set before the answer went out comes from the timer, and whatever the work
+            // returned then (a failed coloring, a stopped search) is not a result
+            if (r.stop.get()) answer = "timeout";
+            finish(r, answer);
+        });
+        // The timer thread raises stop itself, so the search ends even when busy searches hold
+        // every carrier thread, and hands the answer to a virtual thread so a slow socket cannot
+        // delay other timeouts.
+        if (timeoutMs > 0) {
+            r.timer = timers.schedule(() -> {
+                r.stop.set(true);
+                exec.execute(() -> abort(r, "timeout"));
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    Callable<String> pathTask(String[] t, Map<String, String> opts, AtomicBoolean stop) {
+        if (t.length < 5) throw new IllegalArgumentException("expected: ID path GRAPH S D [mode=M] [bidirectional] [timeout=MS]");
+        CompletableFuture<GraphInstance> gf = graphs.get(t[2]);
+        if (gf == null) throw new IllegalArgumentException("no graph named '" + t[2] + "'");
+        int src = Integer.parseInt(t[3]), dst = Integer.parseInt(t[4]);
+        AStar.Mode mode = opts.containsKey("mode") ? AStar.Mode.parse(opts.get("mode")) : AStar.Mode.UCS;
+        boolean bidir = opts.containsKey("bidirectional");
+        return () -> path(await(gf, t[2]), src, dst, mode, bidir, stop).call();
+    }
+
+    // stop (may be null) ends the search early with a CancellationException
+    static Callable<String> path(GraphInstance gi, int src, int dst, AStar.Mode mode, boolean bidir, AtomicBoolean stop) {
+        return () -> {
+            if (bidir && !gi.valid.contains(mode)) {
+                return "error bidirectional needs a consistent heuristic; mode=" + mode.name().toLowerCase(Locale.ROOT)
+                        + " fails the validity check on this graph";
+            }
+            AStar.Graph g = gi.graph;
+            Landmarks lm = mode == AStar.Mode.ALT ? gi.landmarks() : null;
+            BatchQueries.Worker w = gi.workers.take();
+            AStar.AResult res;
+            try {
+                w.fwd.stop = stop;
+                res = bidir ? AStar.bidirectional(g, w.fwd, w.bwd, src, dst, mode.toward(g, lm, dst), mode.toward(g, lm, src))
+                            : AStar.astar(g, w.fwd, src, dst, mode.toward(g, lm, dst));
+            } finally {
+                w.fwd.stop = null;
+                gi.workers.add(w);
+            }
+            StringBuilder sb = new StringBuilder("ok cost=");
+            sb.append(res.cost == null ? "none" : String.format(Locale.ROOT, "%.6f", res.cost));
+            sb.append(" expanded=").append(res.expanded);
+            if (res.path != null) {
+                sb.append(" path=");
+                int i = 0;
+                for (int v : res.path) {
+                    if (i++ > 0) sb.append("->");
+                    sb.append(v);
+                }
+            }
+            return sb.toString();
+        };
+    }
+
+    Callable<String> colorTask(String[] t, Map<String, String> opts, AtomicBoolean stop) {
+        if (t.length < 3) throw new IllegalArgumentException("expected: ID color CSP [k=K] [timeout=MS]");
+        CompletableFuture<CspInstance> cf = csps.get(t[2]);
+        if (cf == null) throw new IllegalArgumentException("no CSP named '" + t[2] + "'");
+        Integer k = opts.containsKey("k") ? Integer.parseInt(opts.get("k")) : null;
+        return () -> {
+            CspInstance ci = await(cf, t[2]);
+            return color(ci, k != null ? k : ci.K, stop).call();
+        };
+    }
+
+    static Callable<String> color(CspInstance ci, int k, AtomicBoolean stop) {
+        return () -> {
+            if (k < 1) return "ok failure";
+            CSP solver = ci.fresh(k);
+            solver.stop = stop;
+            return "ok " + CSP.format(solver.solve());
+        };
+    }
+
+    // The first of the result, the timeout and a cancel to get here answers; the rest are dropped.
+    boolean finish(Request r, String answer) {
+        if (!r.done.compareAndSet(false, true)) return false;
+        r.stop.set(true);
+        ScheduledFuture<?> timer = r.timer;
+        if (timer != null) timer.cancel(false);
+        r.session.live.remove(r.id, r);
+        r.session.send(r.id + " " + answer);
+        r.session.finished();
+        return true;
+    }
+
+    boolean abort(Request r, String answer) {
+        if (!finish(r, answer)) return false;
+        Future<?> f = r.future;
+        if (f != null) f.cancel(true);
+        return true;
+    }
+
+    // ---- transports ----
+
+    // Reads requests until end of input, then waits for the ones still running to answer.
+    void serve(BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        Session s = new Session(out);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            handle(s, line);
+        }
+        s.awaitIdle();
+    }
+
+    void listen(int port) throws IOException {
+        try (ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            server = ss;
+            System.err.println("listening on " + ss.getInetAddress().getHostAddress() + ":" + ss.getLocalPort());
+            while (true) {
+                Socket sock;
+                try {
+                    sock = ss.accept();
+                } catch (SocketException closed) {
+                    return; // shutdown
+                }
+                Thread.ofVirtual().start(() -> {
+                    try (Socket c = sock;
+                         BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8)))) {
+                        serve(in, out);
+                    } catch (IOException | InterruptedException ex) {
+                        System.err.println("connection dropped: " + ex.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    // Sends the request lines of in, then prints answers until the service closes the connection.
+    static void client(String host, int port, BufferedReader in) throws IOException, InterruptedException {
+        try (Socket sock = new Socket(host, port)) {
+            BufferedReader answers = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = Thread.ofPlatform().start(() -> {
+                try {
+                    String line;
+                    while ((line = answers.readLine()) != null) System.out.println(line);
+                } catch (IOException ex) {
+                    System.err.println("read failed: " + ex.getMessage());
+                }
+            });
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(sock.getOutputStream(), StandardCharsets.UTF_8)));
+            String line;
+            while ((line = in.readLine()) != null) out.println(line);
+            out.flush();
+            sock.shutdownOutput();
+            reader.join();
+        }
+    }
+
+    // ---- warmup ----
+
+    static final long WARMUP_SOLVE_MS = 1000; // a hard instance should not hold up startup
+
+    // Runs `rounds` random queries per mode on every graph and one coloring per CSP (for at most
+    // WARMUP_SOLVE_MS), so the first real requests hit compiled code.
+    void warmup(int rounds) throws InterruptedException {
+        List<Callable<String>> jobs = new ArrayList<>();
+        SplittableRandom rnd = new SplittableRandom(1);
+        for (CompletableFuture<GraphInstance> gf : graphs.values()) {
+            GraphInstance gi = gf.join();
+            int[] ids = gi.graph.ids;
+            if (ids.length == 0) continue;
+            for (AStar.Mode mode : AStar.Mode.values()) {
+                if (mode != AStar.Mode.UCS && mode != AStar.Mode.ALT && !gi.graph.allCells) continue;
+                for (int i = 0; i < rounds; i++) {
+                    boolean bidir = i % 2 == 1 && gi.valid.contains(mode);
+                    jobs.add(path(gi, ids[rnd.nextInt(ids.length)], ids[rnd.nextInt(ids.length)], mode, bidir, null));
+                }
+            }
+        }
+        for (CompletableFuture<CspInstance> cf : csps.values()) {
+            CspInstance ci = cf.join();
+            AtomicBoolean stop = new AtomicBoolean();
+            timers.schedule(() -> stop.set(true), WARMUP_SOLVE_MS, TimeUnit.MILLISECONDS);
+            jobs.add(color(ci, ci.K, stop));
+        }
+        for (Future<String> f : exec.invokeAll(jobs)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                System.err.println("warmup query failed: " + ex.getCause().getMessage());
+            }
+        }
+    }
+
+    // ---- main ----
+
+    static void usage() {
+        System.out.println("Usage: java SolverService [--graph NAME=FILE]... [--csp NAME=FILE]... [--port P]");
+        System.out.println("       [--timeout-ms T] [--contexts N] [--warmup N]");
+        System.out.println("       java SolverService client [--host H] --port P [FILE|-]");
+        System.out.println("Without --port requests are read from stdin and answered on stdout.");
+    }
+
+    static String[] named(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq <= 0) throw new IllegalArgumentException("expected NAME=FILE but got '" + arg + "'");
+        return new String[] {arg.substring(0, eq), arg.substring(eq + 1)};
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("client")) {
+            String host = "127.0.0.1", file = "-";
+            int port = -1;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--host") && i + 1 < args.length) host = args[++i];
+                else if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+                else file = args[i];
+            }
+            if (port < 0) { usage(); System.exit(1); }
+            try (BufferedReader in = file.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in))
+                    : new BufferedReader(new FileReader(file))) {
+                client(host, port, in);
+            }
+            return;
+        }
+
+        List<String[]> graphFiles = new ArrayList<>(), cspFiles = new ArrayList<>();
+        int port = -1, contexts = Runtime.getRuntime().availableProcessors(), warmup = 0;
+        long timeoutMs = 10_000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--graph") && i + 1 < args.length) graphFiles.add(named(args[++i]));
+            else if (args[i].equals("--csp") && i + 1 < args.length) cspFiles.add(named(args[++i]));
+            else if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--timeout-ms") && i + 1 < args.length) timeoutMs = Long.parseLong(args[++i]);
+            else if (args[i].equals("--contexts") && i + 1 < args.length) contexts = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("--warmup") && i + 1 < args.length) warmup = Integer.parseInt(args[++i]);
+            else { usage(); System.exit(1); }
+        }
+
+        SolverService service = new SolverService(contexts, timeoutMs);
+        long t0 = System.nanoTime();
+        List<CompletableFuture<?>> loads = new ArrayList<>();
+        for (String[] nf : graphFiles) loads.add(service.loadGraph(nf[0], nf[1]));
+        for (String[] nf : cspFiles) loads.add(service.loadCsp(nf[0], nf[1]));
+        for (int i = 0; i < loads.size(); i++) {
+            String[] nf = i < graphFiles.size() ? graphFiles.get(i) : cspFiles.get(i - graphFiles.size());
+            await(loads.get(i), nf[0]);
+        }
+        if (warmup > 0) service.warmup(warmup);
+        System.err.printf("loaded %d graph(s), %d CSP(s) in %.3f s%n", graphFiles.size(), cspFiles.size(), (System.nanoTime() - t0) / 1e9);
+        try {
+            if (port >= 0) service.listen(port);
+            else service.serve(new BufferedReader(new InputStreamReader(System.in)),
+                    new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))));
+        } finally {
+            service.exec.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+// IncrementalPlannerTest.java
+import java.util.*;
+
+// Replans LPA* after random weight changes and checks every answer against a fresh UCS run on
+// the same weights. Also checks that a heuristic which is inconsistent on some arc is rejected
+// up front. Exits with status 1 on the first failure.
+//
+//   javac -d out src/*.java test/*.java && java -cp out IncrementalPlannerTest
+public class IncrementalPlannerTest {
+
+    static int failures;
+
+    public static void main(String[] args) {
+        for (long seed = 1; seed <= 5; seed++) {
+            AStar.Graph g = grid(40, 40, seed);
+            Landmarks lm = Landmarks.select(g, 4);
+            int s = g.ids[0], d = g.ids[g.n - 1];
+            for (AStar.Mode mode : new AStar.Mode[] { AStar.Mode.UCS, AStar.Mode.EUCLIDEAN, AStar.Mode.ALT }) {
+                replansMatchUcs(g, s, d, mode.toward(g, lm, d), mode + " seed " + seed, seed);
+            }
+            inconsistentHeuristicIsRejected(g, s, d);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("IncrementalPlannerTest: OK");
+    }
+
+    static void replansMatchUcs(AStar.Graph g, int s, int d, AStar.Heuristic h, String what, long seed) {
+        IncrementalPlanner planner = new IncrementalPlanner(g, s, d, h);
+        // shares the planner's weight array, so UCS always sees the updated weights
+        AStar.Graph current = new AStar.Graph(g.ids, g.cells, g.cellWidth, g.offsets, g.targets, planner.weights);
+        AStar.SearchContext ctx = new AStar.SearchContext(g);
+        check(what + " initial", planner.replan(), AStar.astar(current, ctx, s, d, AStar.zeroHeuristic()), planner);
+        Random rnd = new Random(seed);
+        for (int round = 0; round < 300; round++) {
+            for (int c = 1 + rnd.nextInt(5); c > 0; c--) {
+                int arc = rnd.nextInt(g.arcCount());
+                int u = source(g, arc), v = g.targets[arc];
+                double w = rnd.nextInt(10) == 0 ? Double.POSITIVE_INFINITY
+                         : g.weights[arc] * (0.5 + 2.0 * rnd.nextDouble());
+                try {
+                    planner.updateEdge(g.ids[u], g.ids[v], w);
+                } catch (IllegalArgumentException ex) {
+                    // would undercut the heuristic; the planner keeps the old weight
+                }
+            }
+            check(what + " round " + round, planner.replan(), AStar.astar(current, ctx, s, d, AStar.zeroHeuristic()), planner);
+        }
+    }
+
+    static void inconsistentHeuristicIsRejected(AStar.Graph g, int s, int d) {
+        // diagonal arcs cost sqrt(2) but Manhattan charges 2 for them
+        try {
+            new IncrementalPlanner(g, s, d, AStar.manhattanHeuristic(g, d));
+            fail("Manhattan on a diagonal grid was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    static void check(String what, AStar.AResult inc, AStar.AResult ucs, IncrementalPlanner planner) {
+        if (!ContractionHierarchy.sameCost(inc, ucs)) fail(what + ": LPA* " + inc.cost + ", UCS " + ucs.cost);
+        else if (!IncrementalPlanner.pathCostMatches(planner, inc)) fail(what + ": path does not add up to " + inc.cost);
+    }
+
+    static void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+
+    // rows x cols 8-connected grid with a few random blocked cells
+    static AStar.Graph grid(int rows, int cols, long seed) {
+        Random rnd = new Random(seed);
+        AStar.GraphBuilder b = new AStar.GraphBuilder();
+        b.cellWidth = cols;
+        boolean[] open = new boolean[rows * cols];
+        for (int c = 0; c < open.length; c++) open[c] = c == 0 || c == open.length - 1 || rnd.nextInt(10) != 0;
+        for (int c = 0; c < open.length; c++) if (open[c]) b.addVertex(c, c);
+        double diag = Math.sqrt(2.0);
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < cols; y++) {
+                int c = x * cols + y;
+                if (!open[c]) continue;
+                if (y + 1 < cols && open[c + 1]) b.addEdge(c, c + 1, 1.0);
+                if (x + 1 < rows && open[c + cols]) b.addEdge(c, c + cols, 1.0);
+                if (x + 1 < rows && y + 1 < cols && open[c + cols + 1]) b.addEdge(c, c + cols + 1, diag);
+                if (x + 1 < rows && y > 0 && open[c + cols - 1]) b.addEdge(c, c + cols - 1, diag);
+            }
+        }
+        return b.build();
+    }
+
+    static int source(AStar.Graph g, int arc) {
+        int u = 0;
+        while (g.offsets[u + 1] <= arc) u++;
+        return u;
+    }
+}
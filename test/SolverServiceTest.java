@@ -0,0 +1,131 @@
+// SolverServiceTest.java
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Starts a SolverService on a loopback port and drives it with the bundled client. Checks the
+// answers to loads, path and color queries, timeouts, cancels and errors, and that a
+// bidirectional query with a heuristic that fails the validity check is refused. Then checks that a
+// timed-out search really stops: its search context must go back to the pool long before a full
+// search could have finished. Exits with status 1 on the first failure.
+//
+//   javac -d out src/*.java test/*.java && java -cp out SolverServiceTest
+public class SolverServiceTest {
+
+    static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("service-test");
+        String grid = dir.resolve("grid.txt").toString(), csp = dir.resolve("csp.txt").toString();
+        String diag = dir.resolve("diag.txt").toString();
+        int side = 1000;
+        GridGenerator.grid(grid, side, side, false, 0.0, false, 1);
+        GridGenerator.grid(diag, 30, 30, true, 0.0, false, 1); // Manhattan overestimates the diagonals
+        GridGenerator.csp(csp, 200, 3.0, 4, true, 1);
+        String from = "1", to = String.valueOf(side * side);
+        AStar.Graph dg = AStar.parseFile(diag).graph;
+        double diagCost = AStar.astar(dg, new AStar.SearchContext(dg), 1, 900, AStar.zeroHeuristic()).cost;
+
+        // one context, so every path query below competes for it
+        SolverService service = new SolverService(1, 10_000);
+        Thread listener = Thread.ofPlatform().start(() -> {
+            try {
+                service.listen(0);
+            } catch (IOException ex) {
+                fail("listen: " + ex.getMessage());
+            }
+        });
+        while (service.server == null) Thread.sleep(10);
+        int port = service.server.getLocalPort();
+
+        // the path and color requests follow their loads at once and must wait for them
+        Map<String, String> a = session(port,
+                "1 load graph big " + grid,
+                "2 path big " + from + " " + to,
+                "3 load csp c " + csp,
+                "4 color c",
+                "5 path nosuch 1 2",
+                "6 load graph bad " + dir.resolve("missing.txt"),
+                "7 load graph diag " + diag,
+                "8 path diag 1 900 mode=manhattan bidirectional",
+                "9 path diag 1 900 mode=euclidean bidirectional",
+                "15 path diag 1 900 mode=alt",
+                "16 path diag 1 900 mode=alt bidirectional");
+        expect(a, "1", "ok");
+        expect(a, "2", "ok cost=1998.000000");
+        expect(a, "3", "ok");
+        expect(a, "4", "ok SOLUTION: {");
+        expect(a, "5", "error no graph named");
+        expect(a, "6", "error");
+        expect(a, "7", "ok");
+        expect(a, "8", "error bidirectional needs a consistent heuristic");
+        expect(a, "9", "ok cost=" + String.format(Locale.ROOT, "%.6f", diagCost));
+        // both wait for the one landmark selection
+        expect(a, "15", "ok cost=" + String.format(Locale.ROOT, "%.6f", diagCost));
+        expect(a, "16", "ok cost=" + String.format(Locale.ROOT, "%.6f", diagCost));
+
+        SolverService.GraphInstance big = service.graphs.get("big").join();
+        long t0 = System.nanoTime();
+        AStar.astar(big.graph, new AStar.SearchContext(big.graph), 1, side * side, AStar.zeroHeuristic());
+        long fullNanos = System.nanoTime() - t0;
+
+        // 10 times out mid-search; 11 waits for the context that 10 holds and is cancelled
+        Map<String, String> b = session(port,
+                "10 path big " + from + " " + to + " timeout=20",
+                "11 path big " + from + " " + to + " mode=euclidean bidirectional",
+                "12 cancel 11",
+                "13 cancel 99",
+                "14 list");
+        expect(b, "10", "timeout");
+        expect(b, "11", "cancelled");
+        expect(b, "12", "ok");
+        expect(b, "13", "error no request 99");
+        expect(b, "14", "ok graphs=big,diag csps=c");
+
+        long deadline = System.nanoTime() + fullNanos / 4;
+        while (big.workers.size() < 1 && System.nanoTime() < deadline) Thread.sleep(1);
+        if (big.workers.size() < 1) fail("the timed-out search kept its context; a full search takes " + fullNanos / 1_000_000 + " ms");
+
+        expect(session(port, "20 shutdown"), "20", "ok");
+        listener.join();
+        service.exec.shutdownNow();
+        for (String f : new String[] {grid, csp, diag}) Files.deleteIfExists(Paths.get(f));
+        Files.deleteIfExists(dir);
+
+        if (failures > 0) {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("SolverServiceTest: OK");
+    }
+
+    // runs the client on the request lines and returns its answers by request id
+    static Map<String, String> session(int port, String... requests) throws Exception {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(captured, true, "UTF-8"));
+        try {
+            SolverService.client("127.0.0.1", port, new BufferedReader(new StringReader(String.join("\n", requests) + "\n")));
+        } finally {
+            System.setOut(out);
+        }
+        Map<String, String> answers = new HashMap<>();
+        for (String line : captured.toString("UTF-8").split("\n")) {
+            int sp = line.indexOf(' ');
+            if (sp > 0) answers.put(line.substring(0, sp), line.substring(sp + 1));
+        }
+        return answers;
+    }
+
+    static void expect(Map<String, String> answers, String id, String prefix) {
+        String got = answers.get(id);
+        if (got != null && got.startsWith(prefix)) return;
+        if (got != null && got.length() > 80) got = got.substring(0, 80) + "..."; // paths run to megabytes
+        fail("request " + id + ": expected '" + prefix + "...' but got " + got);
+    }
+
+    static void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+}